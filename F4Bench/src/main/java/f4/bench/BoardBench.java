@@ -0,0 +1,80 @@
+package f4.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * F4Board: la mossa (drop), il controllo di vittoria (lastMoveWins, che ha
+ * preso il posto di checkWin/checkDir del server e checkLocalWin del client)
+ * e una partita intera. Le board fino a 64 bit usano il percorso a una parola,
+ * le altre il bitset: 6x7 e 7x8 da una parte, 8x8 e oltre dall'altra.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBench {
+    @Param({"6x7", "7x8", "8x8", "20x20", "50x50"})
+    public String size;
+
+    private F4Board board;
+    // Posizione di meta' partita con l'ultima mossa impostata, per lastMoveWins
+    private F4Board middle;
+    // Colonne di una partita casuale fino alla board piena (senza fermarsi alle vittorie)
+    private int[] game;
+    private int[] playable;
+    private int next;
+
+    @Setup
+    public void setup() {
+        int x = size.indexOf('x');
+        int rows = Integer.parseInt(size.substring(0, x)), cols = Integer.parseInt(size.substring(x + 1));
+        board = new F4Board(rows, cols);
+        Random rnd = new Random(42);
+        game = new int[rows * cols];
+        for (int i = 0; i < game.length; ) {
+            int c = rnd.nextInt(cols);
+            if (board.canPlay(c)) { board.drop(c, i & 1); game[i++] = c; }
+        }
+        middle = new F4Board(rows, cols);
+        for (int i = 0; i < game.length / 2; i++) middle.drop(game[i], i & 1);
+        playable = new int[cols];
+        int n = 0;
+        for (int c = 0; c < cols; c++) if (middle.canPlay(c)) playable[n++] = c;
+        playable = java.util.Arrays.copyOf(playable, n);
+    }
+
+    /** Una mossa e il suo annullamento su una posizione di meta' partita. */
+    @Benchmark
+    public int dropUndo() {
+        int c = playable[next++ % playable.length];
+        int row = middle.drop(c, middle.moves() & 1);
+        middle.undo(c);
+        return row;
+    }
+
+    /** Mossa piu' controllo di vittoria: quello che fa il server per ogni MOVE. */
+    @Benchmark
+    public boolean dropAndCheckWin() {
+        int c = playable[next++ % playable.length];
+        middle.drop(c, middle.moves() & 1);
+        boolean win = middle.lastMoveWins();
+        middle.undo(c);
+        return win;
+    }
+
+    /** Partita intera dalla board vuota fino a vittoria o board piena. */
+    @Benchmark
+    public int playGame() {
+        board.clear();
+        for (int i = 0; i < game.length; i++) {
+            board.drop(game[i], i & 1);
+            if (board.lastMoveWins()) return i;
+        }
+        return game.length;
+    }
+}
@@ -0,0 +1,84 @@
+package f4.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codifica e decodifica dei messaggi di ogni turno, nel protocollo testuale
+ * (F4Text) e in quello binario (F4Proto).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBench {
+    private final F4Proto.Frame frame = new F4Proto.Frame();
+    private final ByteBuffer out = ByteBuffer.allocate(256);
+    private byte[] move, moved, config;
+    private ByteBuffer binaryMove, binaryMoved;
+
+    @Setup
+    public void setup() {
+        move = "MOVE 3".getBytes(StandardCharsets.US_ASCII);
+        moved = "MOVED 5 3 X".getBytes(StandardCharsets.US_ASCII);
+        config = "CONFIG 6 7 X RED".getBytes(StandardCharsets.US_ASCII);
+        binaryMove = ByteBuffer.allocate(16);
+        F4Proto.putMove(binaryMove, 3);
+        binaryMove.flip();
+        binaryMoved = ByteBuffer.allocate(16);
+        F4Proto.putMoved(binaryMoved, 5, 3, 'X');
+        binaryMoved.flip();
+    }
+
+    @Benchmark
+    public int parseMove() {
+        F4Text.parse(move, 0, move.length, frame);
+        return frame.a;
+    }
+
+    @Benchmark
+    public int parseMoved() {
+        F4Text.parse(moved, 0, moved.length, frame);
+        return frame.a + frame.b + frame.sym;
+    }
+
+    @Benchmark
+    public int parseConfig() {
+        F4Text.parse(config, 0, config.length, frame);
+        return frame.a + frame.b;
+    }
+
+    @Benchmark
+    public int decodeMoveBinary() throws IOException {
+        binaryMove.rewind();
+        F4Proto.decode(binaryMove, frame);
+        return frame.a;
+    }
+
+    @Benchmark
+    public int decodeMovedBinary() throws IOException {
+        binaryMoved.rewind();
+        F4Proto.decode(binaryMoved, frame);
+        return frame.a + frame.b;
+    }
+
+    @Benchmark
+    public int encodeMovedText() {
+        out.clear();
+        F4Text.putMoved(out, 5, 3, 'X');
+        return out.position();
+    }
+
+    @Benchmark
+    public int encodeMovedBinary() {
+        out.clear();
+        F4Proto.putMoved(out, 5, 3, 'X');
+        return out.position();
+    }
+}
@@ -0,0 +1,91 @@
+package f4.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Una partita intera attraverso il server vero, avviato in questo processo
+ * (porta 4444, trasporto scelto da io), con due client sui socket locali
+ * pilotati da un solo thread: matchmaking, protocollo testuale, trasporto e
+ * Match. Le mosse sono quelle di MatchBench.column.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBench {
+    @Param({"6x7", "20x20"})
+    public String size;
+
+    @Param({"nio", "blocking"})
+    public String io;
+
+    private int rows, cols;
+    private int games;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        int x = size.indexOf('x');
+        rows = Integer.parseInt(size.substring(0, x));
+        cols = Integer.parseInt(size.substring(x + 1));
+        Map<String, String> opts = new HashMap<>();
+        opts.put("io", io);
+        opts.put("log-level", "warn");
+        new F4Server(rows, cols, 'X', 'O', opts).start();
+        // Il server apre la porta nel suo thread: si aspetta che accetti
+        for (int i = 0; i < 100; i++) {
+            try (Socket probe = new Socket("localhost", 4444)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IOException("Il server non si e' avviato");
+    }
+
+    @Benchmark
+    public int playMatch() throws IOException {
+        String n = "bench" + games++;
+        try (Socket s1 = new Socket("localhost", 4444); Socket s2 = new Socket("localhost", 4444)) {
+            s1.setTcpNoDelay(true);
+            s2.setTcpNoDelay(true);
+            BufferedReader[] in = {reader(s1), reader(s2)};
+            OutputStream[] out = {s1.getOutputStream(), s2.getOutputStream()};
+            out[0].write((n + "a\n").getBytes(StandardCharsets.US_ASCII));
+            // Il primo in coda riceve subito CONFIG: cosi' l'ordine dei giocatori e' certo
+            readUntil(in[0], "CONFIG");
+            out[1].write((n + "b\n").getBytes(StandardCharsets.US_ASCII));
+            F4Board board = new F4Board(rows, cols);
+            int moves = 0;
+            for (int turn = 0; ; turn ^= 1) {
+                if (readUntil(in[turn], "YOUR_TURN") == null) return moves;
+                int c = MatchBench.column(board, moves);
+                board.drop(c, turn);
+                out[turn].write(("MOVE " + c + "\n").getBytes(StandardCharsets.US_ASCII));
+                moves++;
+            }
+        }
+    }
+
+    private static BufferedReader reader(Socket s) throws IOException {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /** Legge fino alla riga che inizia con prefix; null se la partita finisce prima. */
+    private static String readUntil(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) return line;
+            if (line.startsWith("WIN") || line.equals("DRAW") || line.equals("EXIT_OPPONENT_LEFT")) return null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,73 @@
+package f4.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Una partita intera dentro Match, senza rete: due giocatori finti tengono i
+ * messaggi in un buffer, quindi si misurano mossa, codifica e gestione dei
+ * turni. La stessa partita sui socket e' in LoopbackBench.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBench {
+    @Param({"6x7", "20x20"})
+    public String size;
+
+    private int rows, cols;
+    private F4Server server;
+
+    /** Giocatore finto: i messaggi restano nel buffer, svuotato a ogni scrittura. */
+    static final class BufferPlayer extends Player {
+        final ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        @Override ByteBuffer outBuffer(int n) { if (out.remaining() < n) out.clear(); return out; }
+        @Override void outReady() {}
+        @Override void close() { closed = true; }
+        @Override void wake() {}
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int x = size.indexOf('x');
+        rows = Integer.parseInt(size.substring(0, x));
+        cols = Integer.parseInt(size.substring(x + 1));
+        Map<String, String> opts = new HashMap<>();
+        opts.put("log-level", "warn");
+        // Il server serve solo come contesto della partita: non viene avviato
+        server = new F4Server(rows, cols, 'X', 'O', opts);
+    }
+
+    @Benchmark
+    public int inMemory() {
+        BufferPlayer p1 = new BufferPlayer(), p2 = new BufferPlayer();
+        p1.name = "a";
+        p2.name = "b";
+        p1.symbol = 'X';
+        p2.symbol = 'O';
+        Match m = new Match(server, 0, p1, p2, rows, cols);
+        m.start();
+        int moves = 0;
+        while (!p1.closed) {
+            Player p = (moves & 1) == 0 ? p1 : p2;
+            m.onMove(p, column(m.board, moves));
+            moves++;
+        }
+        return moves;
+    }
+
+    /** La colonna (3 * mossa) % colonne, o la prima libera a destra: le partite sono sempre uguali. */
+    static int column(F4Board board, int move) {
+        int c = (3 * move) % board.cols;
+        while (!board.canPlay(c)) c = (c + 1) % board.cols;
+        return c;
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Client senza GUI: gioca una partita online con lo stesso protocollo di
+ * F4Client (nome, negoziazione del binario, CONFIG, START, YOUR_TURN /
+ * WAIT_TURN, MOVED, WIN / DRAW / EXIT_OPPONENT_LEFT) e sceglie le mosse con
+ * una Strategy. Tutto gira sul thread che chiama play(); un'istanza gioca una
+ * partita alla volta. Se la connessione cade in partita il bot torna al suo
+ * posto con il token di ripresa, come F4Client; con dropRate le cadute si
+ * provocano apposta.
+ */
+public class F4Bot {
+    /**
+     * Sceglie la colonna da giocare per il giocatore me (0 o 1) della board,
+     * che puo' modificare purche' la lasci com'era. Un'istanza gioca una
+     * partita alla volta; reset la prepara a una partita nuova, con un seme
+     * per le scelte casuali, cosi' una partita si puo' rigiocare uguale.
+     */
+    public interface Strategy {
+        int move(F4Board board, int me);
+
+        default void reset(long seed) {}
+    }
+
+    public enum Outcome { WIN, LOSS, DRAW, OPPONENT_LEFT }
+
+    /** Esito di una partita e mosse giocate dal bot. */
+    public static final class Result {
+        public final Outcome outcome;
+        public final int moves;
+
+        Result(Outcome outcome, int moves) {
+            this.outcome = outcome;
+            this.moves = moves;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final Strategy strategy;
+    private boolean binary = true;
+    private long thinkMs;
+    private int timeoutMs = 30_000;
+    private F4Histogram rtt, reconnects;
+    private boolean resume = true;
+    private double dropRate;
+    private final Random rnd = new Random();
+    private volatile Socket socket;
+    private volatile boolean inMatch, closing;
+
+    private static final long RECONNECT_MS = 30_000;
+
+    /** Stato di una partita, che sopravvive alle riconnessioni. */
+    private static final class Game {
+        F4Board board;
+        char mySym;
+        int moves;
+        long sentAt;
+        String token;
+        // Prima caduta dei tentativi in corso, e inizio della riconnessione da misurare
+        long lostAt, resumeAt;
+    }
+
+    public F4Bot(String host, int port, String name, Strategy strategy) {
+        this.host = host;
+        this.port = port;
+        this.name = name;
+        this.strategy = strategy;
+    }
+
+    /** Accetta il protocollo binario se il server lo offre (default true). */
+    public F4Bot binary(boolean b) { binary = b; return this; }
+
+    /** Pausa media prima di ogni mossa; quella vera e' tra meta' e una volta e mezza. */
+    public F4Bot thinkMs(long ms) { thinkMs = ms; return this; }
+
+    /** Timeout di connessione e di lettura. */
+    public F4Bot timeoutMs(int ms) { timeoutMs = ms; return this; }
+
+    /** Registra qui il tempo tra l'invio di MOVE e il MOVED di conferma. */
+    public F4Bot rtt(F4Histogram h) { rtt = h; return this; }
+
+    /** Torna al suo posto se la connessione cade in partita (default true). */
+    public F4Bot resume(boolean b) { resume = b; return this; }
+
+    /** Probabilita' di chiudere di colpo la connessione dopo ogni mossa, per provare la ripresa. */
+    public F4Bot dropRate(double p) { dropRate = p; return this; }
+
+    /** Registra qui il tempo di una riconnessione: dal connect al turno (o all'esito) ricevuto. */
+    public F4Bot reconnects(F4Histogram h) { reconnects = h; return this; }
+
+    /** true dallo START alla fine della partita, false mentre il bot aspetta un avversario. */
+    public boolean inMatch() { return inMatch; }
+
+    /** Chiude la connessione da un altro thread: play() esce con IOException. */
+    public void close() {
+        closing = true;
+        Socket s = socket;
+        if (s != null) try { s.close(); } catch (IOException e) {}
+    }
+
+    /** Si connette, aspetta un avversario e gioca fino alla fine della partita. */
+    public Result play() throws IOException {
+        closing = false;
+        Game g = new Game();
+        String hello = name;
+        try {
+            while (true) {
+                try {
+                    return connection(hello, g);
+                } catch (IOException e) {
+                    // Caduta in partita: si ritenta subito, poi ogni 250 ms finche' il server tiene il posto
+                    if (closing || !resume || g.token == null) throw e;
+                    long now = System.nanoTime();
+                    if (g.lostAt == 0) g.lostAt = now;
+                    else if (now - g.lostAt > RECONNECT_MS * 1_000_000) throw e;
+                    else sleep(250);
+                    hello = F4Proto.RESUME + " " + g.token + " " + (g.board != null ? g.board.moves() : 0) + " " + name;
+                    g.resumeAt = System.nanoTime();
+                }
+            }
+        } finally {
+            socket = null;
+            inMatch = false;
+        }
+    }
+
+    private Result connection(String hello, Game g) throws IOException {
+        try (Socket s = new Socket()) {
+            socket = s;
+            if (closing) throw new IOException("Chiuso");
+            s.connect(new InetSocketAddress(host, port), timeoutMs);
+            s.setSoTimeout(timeoutMs);
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            out.write((hello + "\n").getBytes(StandardCharsets.UTF_8));
+
+            ByteBuffer scratch = ByteBuffer.allocate(F4Proto.MAX_FRAME);
+            ByteBuffer moveBuf = ByteBuffer.allocate(16);
+            F4Proto.Frame f = new F4Proto.Frame();
+            boolean binaryIn = false, binaryOut = false;
+            while (true) {
+                if (binaryIn) {
+                    if (!F4Proto.read(in, scratch, f)) throw new EOFException("Server chiuso");
+                } else {
+                    int n = F4Proto.readLineBytes(in, scratch);
+                    if (n < 0) throw new EOFException("Server chiuso");
+                    if (!F4Text.parse(scratch.array(), 0, n, f)) {
+                        String line = new String(scratch.array(), 0, n, StandardCharsets.UTF_8);
+                        if (binary && line.equals(F4Proto.OFFER)) {
+                            out.write((F4Proto.ACCEPT + "\n").getBytes(StandardCharsets.UTF_8));
+                            binaryOut = true;
+                        } else if (line.equals(F4Proto.OK)) {
+                            binaryIn = true;
+                        } else {
+                            control(line, g);
+                        }
+                        continue;
+                    }
+                }
+                switch (f.op) {
+                    case F4Proto.CONFIG:
+                        g.board = new F4Board(f.a, f.b);
+                        g.mySym = f.sym;
+                        break;
+                    case F4Proto.START:
+                        // Il primo in coda riceve CONFIG gia' in attesa: la partita c'e' solo da START
+                        inMatch = true;
+                        break;
+                    case F4Proto.YOUR_TURN:
+                        if (g.board == null) throw new IOException("YOUR_TURN prima di CONFIG");
+                        resumed(g);
+                        think();
+                        int col = strategy.move(g.board, 0);
+                        moveBuf.clear();
+                        if (binaryOut) F4Proto.putMove(moveBuf, col);
+                        else F4Text.putMove(moveBuf, col);
+                        g.sentAt = System.nanoTime();
+                        out.write(moveBuf.array(), 0, moveBuf.position());
+                        if (dropRate > 0 && g.token != null && rnd.nextDouble() < dropRate) throw new IOException("Caduta provocata");
+                        break;
+                    case F4Proto.WAIT_TURN:
+                        resumed(g);
+                        break;
+                    case F4Proto.MOVED:
+                        boolean mine = f.sym == g.mySym;
+                        g.board.drop(f.b, mine ? 0 : 1);
+                        if (mine) {
+                            g.moves++;
+                            if (rtt != null && g.sentAt != 0) rtt.recordNanos(System.nanoTime() - g.sentAt);
+                            g.sentAt = 0;
+                        }
+                        break;
+                    case F4Proto.WIN:
+                        resumed(g);
+                        return new Result(f.text.trim().equals(name) ? Outcome.WIN : Outcome.LOSS, g.moves);
+                    case F4Proto.DRAW:
+                        resumed(g);
+                        return new Result(Outcome.DRAW, g.moves);
+                    case F4Proto.EXIT_OPPONENT_LEFT:
+                        resumed(g);
+                        return new Result(Outcome.OPPONENT_LEFT, g.moves);
+                    case F4Proto.TEXT:
+                        control(f.text, g);
+                        break;
+                    default:
+                        // TIMEOUT (seguito dal WIN) e opcode sconosciuti non cambiano nulla
+                }
+            }
+        }
+    }
+
+    /** Righe per la ripresa: il token del posto e l'esito di una riconnessione. */
+    private void control(String line, Game g) throws IOException {
+        if (line.startsWith(F4Proto.RESUME_TOKEN + " ")) g.token = line.substring(F4Proto.RESUME_TOKEN.length() + 1).trim();
+        else if (line.startsWith(F4Proto.RESUMED)) g.lostAt = 0;
+        else if (line.equals(F4Proto.RESUME_FAILED)) {
+            g.token = null;
+            throw new IOException("Ripresa rifiutata");
+        }
+    }
+
+    /** Primo turno (o esito) dopo una riconnessione: da qui si gioca di nuovo. */
+    private void resumed(Game g) {
+        if (g.resumeAt == 0) return;
+        if (reconnects != null) reconnects.recordNanos(System.nanoTime() - g.resumeAt);
+        g.resumeAt = 0;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void think() {
+        if (thinkMs <= 0) return;
+        try {
+            Thread.sleep(thinkMs / 2 + (long) (rnd.nextDouble() * thinkMs));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- strategie ---
+
+    /** Una colonna giocabile a caso. */
+    public static Strategy random(long seed) {
+        Random r = new Random(seed);
+        return new Strategy() {
+            public int move(F4Board b, int me) { return randomMove(b, r); }
+            public void reset(long seed) { r.setSeed(seed); }
+        };
+    }
+
+    /** La colonna giocabile piu' vicina al centro. */
+    public static Strategy center() {
+        return (b, me) -> centerMove(b);
+    }
+
+    /** Vince se puo', altrimenti blocca la vittoria avversaria, altrimenti gioca a caso. */
+    public static Strategy greedy(long seed) {
+        Random r = new Random(seed);
+        return new Strategy() {
+            public int move(F4Board b, int me) {
+                int c = winningMove(b, me);
+                if (c < 0) c = winningMove(b, 1 - me);
+                return c >= 0 ? c : randomMove(b, r);
+            }
+            public void reset(long seed) { r.setSeed(seed); }
+        };
+    }
+
+    /** Ricerca con F4Solver per millis ms a mossa (una tabella da 16 MB per bot). */
+    public static Strategy solver(long millis) {
+        F4Solver s = new F4Solver(16);
+        return (b, me) -> s.search(b, me, millis).move;
+    }
+
+    /**
+     * Ricerca con F4Solver fino a depth semimosse, senza limite di tempo: con la
+     * tabella svuotata a ogni partita le mosse dipendono solo dalla posizione.
+     */
+    public static Strategy solverDepth(int depth) {
+        F4Solver s = new F4Solver(1);
+        return new Strategy() {
+            public int move(F4Board b, int me) { return s.search(b, me, 3_600_000L, depth).move; }
+            public void reset(long seed) { s.clear(); }
+        };
+    }
+
+    /** random, center, greedy, solver[:ms] o solver:dN (profondita' N). */
+    public static Strategy strategy(String spec, long seed) {
+        if (spec.equals("random")) return random(seed);
+        if (spec.equals("center")) return center();
+        if (spec.equals("greedy")) return greedy(seed);
+        if (spec.startsWith("solver:d")) return solverDepth(Integer.parseInt(spec.substring(8)));
+        if (spec.startsWith("solver")) return solver(spec.length() > 7 ? Long.parseLong(spec.substring(7)) : 50);
+        throw new IllegalArgumentException("Strategia sconosciuta: " + spec);
+    }
+
+    private static int randomMove(F4Board b, Random r) {
+        int c;
+        do { c = r.nextInt(b.cols); } while (!b.canPlay(c));
+        return c;
+    }
+
+    private static int centerMove(F4Board b) {
+        for (int d = 0; ; d++) {
+            int c = b.cols / 2 + ((d & 1) == 0 ? d / 2 : -(d / 2 + 1));
+            if (b.canPlay(c)) return c;
+        }
+    }
+
+    private static int winningMove(F4Board b, int player) {
+        for (int c = 0; c < b.cols; c++) {
+            if (!b.canPlay(c)) continue;
+            b.drop(c, player);
+            boolean win = b.lastMoveWins();
+            b.undo(c);
+            if (win) return c;
+        }
+        return -1;
+    }
+}
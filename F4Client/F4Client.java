@@ -5,47 +5,109 @@ import java.awt.event.*;
 import java.awt.geom.Rectangle2D;
 import java.io.*;
 import java.net.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.swing.Timer;
 
 public class F4Client extends JFrame {
     private JPanel boardPanel;
+    private final F4BoardPainter painter = new F4BoardPainter();
     private JLabel lblStatus, lblMyName, lblOppName, lblTurn;
 
     private JPanel pnlMyColor, pnlOppColor;
 
-    private char[][] board;
+    private F4Board board;
     private int rows = 6, cols = 7;
     private char mySym = 'X', oppSym = 'O';
     private Color myColor = Color.GRAY, oppColor = Color.GRAY;
     private String myName, oppName = "???";
 
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private OutputStream out;
+    private volatile boolean binaryOut = false;
+    private final ByteBuffer moveBuf = ByteBuffer.allocate(16);
     private String serverIp = "localhost:4444";
+    private String serverHost;
+    private int serverPort;
 
     private volatile boolean isRunning = false;
     private volatile boolean expectingDisconnect = false;
     private boolean isOffline = false;
     private boolean isMyTurn = false;
     private boolean gameStarted = false;
+    private String timedOut;
+
+    // Mossa mostrata subito e non ancora confermata dal server (-1: nessuna)
+    private final boolean predict;
+    private int pendingCol = -1, pendingRow;
+    private long clickedAt;
+    private int timedMoves;
+    private long shownNs, confirmedNs;
+
+    // Latenza finta (andata e ritorno) per provare il gioco come su una rete lenta
+    private final long latencyMs;
+    private ScheduledExecutorService lag;
+    private volatile int session;
+
+    // Ripresa dopo una caduta: token del posto, MOVED ricevuti, inizio dei tentativi (thread di rete)
+    private static final long RECONNECT_MS = 30_000;
+    private volatile String resumeToken;
+    private int movesSeen;
+    private long lostAt, retryMs;
 
     private Timer scanTimer;
     private int dotCount = 0;
 
+    private static final long CPU_TIME_MS = 750;
+    private static final int CPU_TT_MB = 64;
+    private F4Solver solver;
+    private final int cpuThreads;
+    private final String bookFile;
+    private F4Book book;
+    private final Object cpuLock = new Object();
+
     public static void main(String[] args) {
         if(args.length < 1) {
             JOptionPane.showMessageDialog(null, "Manca il nome giocatore!");
             System.exit(1);
         }
-        SwingUtilities.invokeLater(() -> new F4Client(args[0]));
+        int threads = Runtime.getRuntime().availableProcessors();
+        String book = "f4book.bin";
+        boolean predict = true;
+        long latency = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--cpu-threads=")) threads = Integer.parseInt(args[i].substring("--cpu-threads=".length()));
+            else if (args[i].startsWith("--book=")) book = args[i].substring("--book=".length());
+            else if (args[i].equals("--no-predict")) predict = false;
+            else if (args[i].startsWith("--latency-ms=")) latency = Long.parseLong(args[i].substring("--latency-ms=".length()));
+        }
+        int cpuThreads = threads;
+        String bookFile = book;
+        boolean predictMoves = predict;
+        long latencyMs = latency;
+        SwingUtilities.invokeLater(() -> new F4Client(args[0], cpuThreads, bookFile, predictMoves, latencyMs));
     }
 
-    public F4Client(String name) {
+    public F4Client(String name, int cpuThreads, String bookFile, boolean predict, long latencyMs) {
         super("Forza 4 Client - " + name);
         this.myName = name;
+        this.cpuThreads = cpuThreads;
+        this.bookFile = bookFile;
+        this.predict = predict;
+        this.latencyMs = latencyMs;
+        if (latencyMs > 0) {
+            lag = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "lag");
+                t.setDaemon(true);
+                return t;
+            });
+        }
         setupGUI();
         SwingUtilities.invokeLater(this::showMenu);
     }
@@ -55,8 +117,7 @@ public class F4Client extends JFrame {
         setSize(850, 600);
         setLayout(new BorderLayout());
 
-        board = new char[rows][cols];
-        clearBoard();
+        board = new F4Board(rows, cols);
 
         boardPanel = new JPanel() {
             @Override
@@ -159,14 +220,20 @@ public class F4Client extends JFrame {
     private void fullReset() {
         isRunning = false;
         expectingDisconnect = false;
+        session++;
+        resumeToken = null;
         try { if(socket!=null) socket.close(); } catch(Exception e){}
 
         rows = 6; cols = 7;
-        board = new char[rows][cols];
-        clearBoard();
+        board = new F4Board(rows, cols);
 
         isOffline = false;
         gameStarted = false;
+        timedOut = null;
+        pendingCol = -1;
+        clickedAt = 0;
+        timedMoves = 0;
+        shownNs = confirmedNs = 0;
 
         myColor = Color.LIGHT_GRAY;
         oppColor = Color.LIGHT_GRAY;
@@ -182,13 +249,22 @@ public class F4Client extends JFrame {
         boardPanel.repaint();
     }
 
-    private void clearBoard() {
-        for(char[] r : board) Arrays.fill(r, ' ');
-    }
-
     private void startOnline() {
         String res = JOptionPane.showInputDialog(this, "Indirizzo Server:", serverIp);
         if(res == null) { showMenu(); return; }
+        // host, host:porta o [ipv6]:porta; senza porta la 4444
+        String addr = res.trim();
+        int colon = addr.lastIndexOf(':');
+        if (colon >= 0 && addr.indexOf(':') != colon && !addr.startsWith("[")) colon = -1;
+        try {
+            serverPort = colon < 0 ? 4444 : Integer.parseInt(addr.substring(colon + 1));
+            if (serverPort < 1 || serverPort > 65535) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Porta non valida: " + addr.substring(colon + 1));
+            showMenu();
+            return;
+        }
+        serverHost = colon < 0 ? addr : addr.substring(0, colon).replace("[", "").replace("]", "");
         serverIp = res;
 
         lblStatus.setText("Connessione...");
@@ -198,23 +274,56 @@ public class F4Client extends JFrame {
     }
 
     private void networkLoop() {
+        lostAt = 0;
+        movesSeen = 0;
         while(isRunning) {
             try {
                 socket = new Socket();
-                socket.connect(new InetSocketAddress(serverIp.split(":")[0], 4444), 3000);
-
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
-
-                out.println(myName);
-                SwingUtilities.invokeLater(() -> lblStatus.setText("Connesso! Attesa configurazione..."));
-
-                String msg;
-                while ((msg = in.readLine()) != null) {
-                    if (msg.startsWith("WIN") || msg.startsWith("DRAW") || msg.startsWith("EXIT_OPPONENT_LEFT")) {
+                socket.connect(new InetSocketAddress(serverHost, serverPort), 3000);
+
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                binaryOut = false;
+
+                // Dopo una caduta si torna al proprio posto: il server manda solo quello che manca
+                String token = resumeToken;
+                sendLine(token != null ? F4Proto.RESUME + " " + token + " " + movesSeen + " " + myName : myName);
+                if (token == null) SwingUtilities.invokeLater(() -> lblStatus.setText("Connesso! Attesa configurazione..."));
+
+                ByteBuffer scratch = ByteBuffer.allocate(F4Proto.MAX_FRAME);
+                boolean binaryIn = false;
+                while (true) {
+                    // Un frame nuovo per messaggio: viene consegnato al thread della GUI
+                    F4Proto.Frame f = new F4Proto.Frame();
+                    if (binaryIn) {
+                        if (!F4Proto.read(in, scratch, f)) break;
+                    } else {
+                        int n = F4Proto.readLineBytes(in, scratch);
+                        if (n < 0) break;
+                        if (!F4Text.parse(scratch.array(), 0, n, f)) {
+                            String line = new String(scratch.array(), 0, n, StandardCharsets.UTF_8);
+                            if (line.equals(F4Proto.OFFER)) {
+                                // Da qui scriviamo in binario; il server risponde PROTO_OK e passa anche lui
+                                sendLine(F4Proto.ACCEPT);
+                                binaryOut = true;
+                            } else if (line.equals(F4Proto.OK)) {
+                                binaryIn = true;
+                            } else {
+                                controlLine(line);
+                            }
+                            continue;
+                        }
+                    }
+                    if (f.op == F4Proto.TEXT) {
+                        controlLine(f.text);
+                        continue;
+                    }
+                    if (f.op == F4Proto.WIN || f.op == F4Proto.DRAW || f.op == F4Proto.EXIT_OPPONENT_LEFT) {
                         expectingDisconnect = true;
                     }
-                    processMessage(msg);
+                    if (f.op == F4Proto.CONFIG) movesSeen = 0;
+                    if (f.op == F4Proto.MOVED) movesSeen++;
+                    deliver(() -> processMessage(f));
                 }
                 throw new IOException("Server chiuso");
 
@@ -224,6 +333,20 @@ public class F4Client extends JFrame {
                     return;
                 }
                 try { socket.close(); } catch(Exception ex){}
+                if (resumeToken != null && isRunning) {
+                    // Il server tiene il posto per un po': si ritenta subito, poi sempre piu' piano
+                    long now = System.nanoTime();
+                    if (lostAt == 0) {
+                        lostAt = now;
+                        retryMs = 0;
+                    }
+                    if (now - lostAt < RECONNECT_MS * 1_000_000) {
+                        SwingUtilities.invokeLater(() -> lblStatus.setText("Connessione persa, riconnessione..."));
+                        try { Thread.sleep(retryMs); } catch (InterruptedException ex) { return; }
+                        retryMs = retryMs == 0 ? 250 : Math.min(2000, retryMs * 2);
+                        continue;
+                    }
+                }
                 if(!gameStarted) {
                     try { Thread.sleep(1000); } catch(Exception ex){}
                 } else {
@@ -238,75 +361,135 @@ public class F4Client extends JFrame {
         }
     }
 
-    private void processMessage(String msg) {
-        SwingUtilities.invokeLater(() -> {
-            String[] p = msg.split(" ");
-            String cmd = p[0];
-
-            switch(cmd) {
-                case "CONFIG":
-                    rows = Integer.parseInt(p[1]);
-                    cols = Integer.parseInt(p[2]);
-                    mySym = p[3].charAt(0);
-                    if (p[4].equals("RED")) { myColor=Color.RED; oppColor=Color.YELLOW; }
-                    else { myColor=Color.YELLOW; oppColor=Color.RED; }
-
-                    board = new char[rows][cols];
-                    clearBoard();
-
-                    pnlMyColor.repaint();
-                    pnlOppColor.repaint();
-                    boardPanel.repaint();
-                    break;
-
-                case "START":
-                    gameStarted = true;
-                    oppSym = p[2].charAt(0);
-                    String n = "";
-                    for(int i=1; i<p.length-1; i++) n += p[i] + " ";
-                    oppName = n.trim();
-
-                    lblOppName.setText("Avversario: " + oppName);
-                    pnlOppColor.repaint();
-                    lblStatus.setText("Partita Iniziata!");
-                    boardPanel.repaint();
-                    break;
-
-                case "YOUR_TURN":
-                    isMyTurn = true;
-                    lblTurn.setText("TOCCA A TE");
-                    lblTurn.setForeground(new Color(0,100,0));
-                    break;
-                case "WAIT_TURN":
-                    isMyTurn = false;
-                    lblTurn.setText("Turno avversario");
-                    lblTurn.setForeground(Color.RED);
-                    break;
-                case "MOVED":
-                    int r = Integer.parseInt(p[1]);
-                    int c = Integer.parseInt(p[2]);
-                    char s = p[3].charAt(0);
-                    board[r][c] = s;
-                    boardPanel.repaint();
-                    break;
-
-                case "WIN":
-                case "DRAW":
-                case "EXIT_OPPONENT_LEFT":
-                    isRunning = false;
-                    String txt = "Pareggio!";
-                    if(cmd.equals("WIN")) {
-                        String winner = "";
-                        for(int i=1; i<p.length; i++) winner += p[i] + " ";
-                        txt = "Vittoria: " + winner.trim();
-                    } else if (cmd.equals("EXIT_OPPONENT_LEFT")) {
-                        txt = "Avversario disconnesso.";
+    /** Righe di testo fuori dal gioco vero e proprio: la ripresa dopo una caduta. */
+    private void controlLine(String line) {
+        if (line.startsWith(F4Proto.RESUME_TOKEN + " ")) {
+            resumeToken = line.substring(F4Proto.RESUME_TOKEN.length() + 1).trim();
+        } else if (line.startsWith(F4Proto.RESUMED)) {
+            lostAt = 0;
+            deliver(() -> lblStatus.setText("Riconnesso."));
+        } else if (line.equals(F4Proto.RESUME_FAILED)) {
+            expectingDisconnect = true;
+            deliver(() -> {
+                isRunning = false;
+                JOptionPane.showMessageDialog(this, "Partita non piu' disponibile.");
+                showMenu();
+            });
+        } else if (line.equals(F4Proto.OPPONENT_AWAY)) {
+            deliver(() -> lblStatus.setText("Avversario disconnesso, si attende il suo ritorno..."));
+        } else if (line.equals(F4Proto.OPPONENT_BACK)) {
+            deliver(() -> lblStatus.setText("Avversario tornato."));
+        }
+    }
+
+    /** Consegna al thread della GUI, in ordine; con la latenza finta dopo l'altra meta' del ritardo. */
+    private void deliver(Runnable r) {
+        if (lag == null) {
+            SwingUtilities.invokeLater(r);
+            return;
+        }
+        int s = session;
+        lag.schedule(() -> SwingUtilities.invokeLater(() -> { if (s == session) r.run(); }),
+                latencyMs - latencyMs / 2, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sendLine(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private synchronized void sendMove(int col) throws IOException {
+        moveBuf.clear();
+        if (binaryOut) F4Proto.putMove(moveBuf, col);
+        else F4Text.putMove(moveBuf, col);
+        out.write(moveBuf.array(), 0, moveBuf.position());
+        out.flush();
+    }
+
+    /** Un messaggio del server, sul thread della GUI. */
+    private void processMessage(F4Proto.Frame f) {
+        switch(f.op) {
+            case F4Proto.CONFIG:
+                rows = f.a;
+                cols = f.b;
+                mySym = f.sym;
+                if (f.red) { myColor=Color.RED; oppColor=Color.YELLOW; }
+                else { myColor=Color.YELLOW; oppColor=Color.RED; }
+
+                board = new F4Board(rows, cols);
+                // Board nuova (ripresa dal journal): la mossa in attesa non c'e' piu'
+                pendingCol = -1;
+
+                pnlMyColor.repaint();
+                pnlOppColor.repaint();
+                boardPanel.repaint();
+                break;
+
+            case F4Proto.START:
+                gameStarted = true;
+                oppSym = f.sym;
+                oppName = f.text.trim();
+
+                lblOppName.setText("Avversario: " + oppName);
+                pnlOppColor.repaint();
+                lblStatus.setText("Partita Iniziata!");
+                boardPanel.repaint();
+                break;
+
+            case F4Proto.YOUR_TURN:
+                // La mossa mostrata non e' stata accettata: si torna a prima
+                rollback();
+                isMyTurn = true;
+                lblTurn.setText("TOCCA A TE");
+                lblTurn.setForeground(new Color(0,100,0));
+                break;
+            case F4Proto.WAIT_TURN:
+                isMyTurn = false;
+                lblTurn.setText("Turno avversario");
+                lblTurn.setForeground(Color.RED);
+                break;
+            case F4Proto.MOVED:
+                if (f.sym == mySym) {
+                    if (pendingCol == f.b && pendingRow == f.a) {
+                        pendingCol = -1;
+                        moveTimed(clickedAt);
+                        break;
                     }
-                    JOptionPane.showMessageDialog(this, txt);
-                    showMenu();
-                    break;
-            }
-        });
+                    rollback();
+                    if (clickedAt != 0) moveTimed(System.nanoTime());
+                } else {
+                    rollback();
+                }
+                int row = board.drop(f.b, f.sym == mySym ? 0 : 1);
+                painter.repaintCell(boardPanel, row, f.b);
+                break;
+
+            case F4Proto.TIMEOUT:
+                rollback();
+                // Segue il WIN dell'avversario
+                timedOut = f.text.trim();
+                isMyTurn = false;
+                lblTurn.setText("Tempo scaduto");
+                lblTurn.setForeground(Color.RED);
+                break;
+
+            case F4Proto.WIN:
+            case F4Proto.DRAW:
+            case F4Proto.EXIT_OPPONENT_LEFT:
+                rollback();
+                isRunning = false;
+                String txt = "Pareggio!";
+                if(f.op == F4Proto.WIN) {
+                    txt = "Vittoria: " + f.text.trim();
+                    if (timedOut != null) txt += " (tempo scaduto per " + timedOut + ")";
+                    timedOut = null;
+                } else if (f.op == F4Proto.EXIT_OPPONENT_LEFT) {
+                    txt = "Avversario disconnesso.";
+                }
+                JOptionPane.showMessageDialog(this, txt);
+                showMenu();
+                break;
+        }
     }
 
     private void startOffline() {
@@ -339,52 +522,85 @@ public class F4Client extends JFrame {
         if (isOffline) {
             playOffline(col);
         } else {
-            out.println("MOVE " + col);
+            if (predict && !board.canPlay(col)) return;
+            clickedAt = System.nanoTime();
+            if (lag == null) {
+                try { sendMove(col); } catch (IOException e) { return; }
+            } else {
+                // Andata: meta' della latenza finta
+                lag.schedule(() -> {
+                    try { sendMove(col); } catch (IOException e) {}
+                }, latencyMs / 2, TimeUnit.MILLISECONDS);
+            }
             isMyTurn = false;
             lblTurn.setText("Attendi...");
+            if (!predict) return;
+            // La mossa si vede subito; il MOVED del server la conferma o la annulla
+            pendingCol = col;
+            pendingRow = board.drop(col, 0);
+            painter.repaintCell(boardPanel, pendingRow, col);
+            if (board.lastMoveWins()) lblTurn.setText("Vittoria? Attendi...");
+            else if (board.isFull()) lblTurn.setText("Pareggio? Attendi...");
         }
     }
 
+    /** Toglie la mossa mostrata ma non confermata, se c'e'. */
+    private void rollback() {
+        if (pendingCol < 0) return;
+        board.undo(pendingCol);
+        painter.repaintCell(boardPanel, pendingRow, pendingCol);
+        pendingCol = -1;
+    }
+
+    /** Mossa confermata: tempo dal clic a quando si e' vista e a quando il server l'ha accettata. */
+    private void moveTimed(long shownAt) {
+        long shown = shownAt - clickedAt, confirmed = System.nanoTime() - clickedAt;
+        clickedAt = 0;
+        timedMoves++;
+        shownNs += shown;
+        confirmedNs += confirmed;
+        lblStatus.setText(String.format(Locale.ROOT, "Mossa: a schermo dopo %.0f ms, confermata dopo %.0f ms (media su %d: %.0f / %.0f ms)",
+                shown / 1e6, confirmed / 1e6, timedMoves, shownNs / 1e6 / timedMoves, confirmedNs / 1e6 / timedMoves));
+    }
+
     private void playOffline(int c) {
-        if (board[0][c] != ' ') return;
-        dropToken(c, mySym);
-        boardPanel.repaint();
+        if (!board.canPlay(c)) return;
+        painter.repaintCell(boardPanel, board.drop(c, 0), c);
 
-        if (checkLocalWin(mySym)) { JOptionPane.showMessageDialog(this, "Vittoria: " + myName); showMenu(); return; }
+        if (board.lastMoveWins()) { JOptionPane.showMessageDialog(this, "Vittoria: " + myName); showMenu(); return; }
+        if (board.isFull()) { JOptionPane.showMessageDialog(this, "Pareggio!"); showMenu(); return; }
 
         isMyTurn = false;
         lblTurn.setText("CPU pensa...");
-        new Timer(800, e -> { ((Timer)e.getSource()).stop(); cpuMove(); }).start();
+        // La ricerca gira fuori dall'EDT su una copia; il tempo di pensiero sostituisce il vecchio ritardo fisso
+        F4Board pos = board;
+        F4Board snapshot = board.copy();
+        new Thread(() -> {
+            int move;
+            synchronized (cpuLock) {
+                if (solver == null) {
+                    solver = new F4Solver(CPU_TT_MB, cpuThreads);
+                    // Il libro e' facoltativo: senza file si cerca sempre
+                    try { book = F4Book.open(java.nio.file.Paths.get(bookFile)); } catch (IOException | RuntimeException e) { book = null; }
+                }
+                int fromBook = book != null ? book.bestMove(snapshot) : -1;
+                move = fromBook >= 0 ? fromBook : solver.search(snapshot, 1, CPU_TIME_MS).move;
+            }
+            SwingUtilities.invokeLater(() -> cpuMove(pos, move));
+        }, "cpu").start();
     }
 
-    private void cpuMove() {
-        Random r = new Random();
-        int c; do { c = r.nextInt(cols); } while(board[0][c] != ' ');
-        dropToken(c, oppSym);
-        boardPanel.repaint();
+    private void cpuMove(F4Board pos, int c) {
+        if (board != pos) return; // partita abbandonata mentre la CPU pensava
+        painter.repaintCell(boardPanel, board.drop(c, 1), c);
 
-        if (checkLocalWin(oppSym)) { JOptionPane.showMessageDialog(this, "Vittoria: CPU"); showMenu(); return; }
+        if (board.lastMoveWins()) { JOptionPane.showMessageDialog(this, "Vittoria: CPU"); showMenu(); return; }
+        if (board.isFull()) { JOptionPane.showMessageDialog(this, "Pareggio!"); showMenu(); return; }
 
         isMyTurn = true;
         lblTurn.setText("TOCCA A TE");
     }
 
-    private void dropToken(int c, char s) {
-        for(int r=rows-1; r>=0; r--) if(board[r][c]==' ') { board[r][c]=s; return; }
-    }
-    private boolean checkLocalWin(char s) {
-        for(int r=0;r<rows;r++) for(int c=0;c<cols;c++) {
-            if(checkDir(r,c,s,1,0)||checkDir(r,c,s,0,1)||checkDir(r,c,s,1,1)||checkDir(r,c,s,1,-1)) return true;
-        } return false;
-    }
-    private boolean checkDir(int r, int c, char s, int dr, int dc) {
-        int cnt=0;
-        for(int i=0; i<4; i++) {
-            int nr=r+i*dr, nc=c+i*dc;
-            if(nr>=0&&nr<rows&&nc>=0&&nc<cols&&board[nr][nc]==s) cnt++; else break;
-        } return cnt==4;
-    }
-
     private void updateAnim() {
         dotCount = (dotCount + 1) % 4;
         String dots = ".".repeat(dotCount);
@@ -397,33 +613,6 @@ public class F4Client extends JFrame {
     }
 
     private void drawBoard(Graphics g) {
-        int w = boardPanel.getWidth(), h = boardPanel.getHeight();
-        int cw = w/cols, ch = h/rows;
-
-        Graphics2D g2 = (Graphics2D) g;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        g.setColor(new Color(0,50,150));
-        g.fillRect(0,0,cols*cw, rows*ch);
-
-        for(int r=0;r<rows;r++) for(int c=0;c<cols;c++) {
-            char s = board[r][c];
-            if(s==mySym) g.setColor(myColor); else if(s==oppSym) g.setColor(oppColor); else g.setColor(Color.WHITE);
-
-            int p = 5;
-            g.fillOval(c*cw+p, r*ch+p, cw-p*2, ch-p*2);
-
-            if(s!=' ') {
-                g.setColor(Color.BLACK);
-                int fontSize = Math.max(16, (int)(ch * 0.5));
-                g.setFont(new Font("SansSerif", Font.BOLD, fontSize));
-
-                FontMetrics fm = g.getFontMetrics();
-                Rectangle2D b = fm.getStringBounds(String.valueOf(s), g);
-                int tx = c*cw + (cw - (int)b.getWidth()) / 2;
-                int ty = r*ch + (ch - (int)b.getHeight()) / 2 + fm.getAscent();
-                g.drawString(""+s, tx, ty);
-            }
-        }
+        painter.paint(g, board, boardPanel.getWidth(), boardPanel.getHeight(), myColor, mySym, oppColor, oppSym);
     }
-}
\ No newline at end of file
+}
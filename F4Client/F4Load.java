@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generatore di carico: N bot F4Bot, ognuno sul suo thread, giocano partite
+ * una dopo l'altra contro il server finche' non scade la durata. Le partenze
+ * sono distribuite uniformemente sul ramp-up. Ogni 5 secondi stampa i
+ * progressi; alla fine partite al secondo, percentili del tempo di risposta
+ * delle mosse, esiti ed errori per tipo. Con --drop-rate i bot chiudono di
+ * colpo la connessione dopo una mossa con quella probabilita' e tornano al
+ * loro posto: si misura quanto ci mettono.
+ *
+ * Uso: java F4Load [--host=localhost:4444] [--bots=100] [--think-ms=0]
+ *          [--ramp-s=5] [--duration-s=30] [--strategy=random|center|solver:MS]
+ *          [--binary=true] [--timeout-ms=30000] [--drop-rate=0] [--resume=true]
+ */
+public class F4Load {
+    private enum Failure { CONNECT, TIMEOUT, IO }
+
+    private static final LongAdder games = new LongAdder();
+    private static final LongAdder moves = new LongAdder();
+    private static final Map<F4Bot.Outcome, LongAdder> outcomes = new EnumMap<>(F4Bot.Outcome.class);
+    private static final Map<Failure, LongAdder> errors = new EnumMap<>(Failure.class);
+    private static final LongAdder interrupted = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 4444, bots = 100, timeoutMs = 30_000;
+        long thinkMs = 0, rampS = 5, durationS = 30;
+        String strategy = "random";
+        boolean binary = true, resume = true;
+        double dropRate = 0;
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            String k = eq < 0 ? a : a.substring(0, eq), v = eq < 0 ? "" : a.substring(eq + 1);
+            switch (k) {
+                case "--host":
+                    int colon = v.lastIndexOf(':');
+                    host = colon < 0 ? v : v.substring(0, colon);
+                    if (colon >= 0) port = Integer.parseInt(v.substring(colon + 1));
+                    break;
+                case "--bots": bots = Integer.parseInt(v); break;
+                case "--think-ms": thinkMs = Long.parseLong(v); break;
+                case "--ramp-s": rampS = Long.parseLong(v); break;
+                case "--duration-s": durationS = Long.parseLong(v); break;
+                case "--strategy": strategy = v; break;
+                case "--binary": binary = !v.equals("false"); break;
+                case "--timeout-ms": timeoutMs = Integer.parseInt(v); break;
+                case "--drop-rate": dropRate = Double.parseDouble(v); break;
+                case "--resume": resume = !v.equals("false"); break;
+                default:
+                    System.err.println("Opzione sconosciuta: " + a);
+                    System.exit(2);
+            }
+        }
+        for (F4Bot.Outcome o : F4Bot.Outcome.values()) outcomes.put(o, new LongAdder());
+        for (Failure e : Failure.values()) errors.put(e, new LongAdder());
+
+        F4Histogram rtt = new F4Histogram(), reconnects = new F4Histogram();
+        long start = System.nanoTime();
+        long end = start + durationS * 1_000_000_000L;
+        List<F4Bot> all = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < bots; i++) {
+            F4Bot bot = new F4Bot(host, port, "bot" + i, F4Bot.strategy(strategy, i))
+                    .binary(binary).thinkMs(thinkMs).timeoutMs(timeoutMs).rtt(rtt)
+                    .resume(resume).dropRate(dropRate).reconnects(reconnects);
+            long startAt = start + rampS * 1_000_000_000L * i / bots;
+            Thread t = new Thread(() -> run(bot, startAt, end), "bot" + i);
+            t.setDaemon(true);
+            all.add(bot);
+            threads.add(t);
+            t.start();
+        }
+        System.out.printf(Locale.ROOT, "%d bot su %s:%d, ramp-up %d s, durata %d s, strategia %s%n",
+                bots, host, port, rampS, durationS, strategy);
+
+        long next = start;
+        while (System.nanoTime() < end) {
+            next += 5_000_000_000L;
+            sleepUntil(Math.min(next, end));
+            if (System.nanoTime() < end) progress(start, rtt);
+        }
+        // Le partite in corso finiscono; chi e' ancora in attesa di un avversario viene chiuso
+        long grace = end + Math.max(5_000L, timeoutMs) * 1_000_000L;
+        while (true) {
+            boolean alive = false, over = System.nanoTime() >= grace;
+            for (int i = 0; i < threads.size(); i++) {
+                if (!threads.get(i).isAlive()) continue;
+                alive = true;
+                if (over || !all.get(i).inMatch()) all.get(i).close();
+            }
+            if (!alive || over) break;
+            Thread.sleep(100);
+        }
+        for (Thread t : threads) t.join(1000);
+
+        double secs = (System.nanoTime() - start) / 1e9;
+        long[] q = rtt.snapshot(0.5, 0.9, 0.99, 0.999);
+        System.out.printf(Locale.ROOT, "%nPartite: %d in %.1f s = %.1f/s (ogni partita conta una volta, non per bot)%n",
+                games.sum() / 2, secs, games.sum() / 2 / secs);
+        System.out.printf(Locale.ROOT, "Mosse: %d = %.0f/s%n", moves.sum(), moves.sum() / secs);
+        System.out.printf(Locale.ROOT, "RTT mossa (us): n=%d p50=%d p90=%d p99=%d p999=%d%n", q[0], q[1], q[2], q[3], q[4]);
+        long[] r = reconnects.snapshot(0.5, 0.99, 1.0);
+        if (dropRate > 0) System.out.printf(Locale.ROOT, "Riconnessioni (us): n=%d p50=%d p99=%d max=%d%n", r[0], r[1], r[2], r[3]);
+        System.out.printf(Locale.ROOT, "Esiti: vinte=%d perse=%d pari=%d avversario uscito=%d%n",
+                outcomes.get(F4Bot.Outcome.WIN).sum(), outcomes.get(F4Bot.Outcome.LOSS).sum(),
+                outcomes.get(F4Bot.Outcome.DRAW).sum(), outcomes.get(F4Bot.Outcome.OPPONENT_LEFT).sum());
+        System.out.printf(Locale.ROOT, "Errori: connessione=%d timeout=%d io=%d; interrotti in attesa a fine prova=%d%n",
+                errors.get(Failure.CONNECT).sum(), errors.get(Failure.TIMEOUT).sum(), errors.get(Failure.IO).sum(),
+                interrupted.sum());
+    }
+
+    private static void run(F4Bot bot, long startAt, long end) {
+        sleepUntil(startAt);
+        while (System.nanoTime() < end) {
+            try {
+                F4Bot.Result r = bot.play();
+                games.increment();
+                moves.add(r.moves);
+                outcomes.get(r.outcome).increment();
+            } catch (ConnectException e) {
+                errors.get(Failure.CONNECT).increment();
+                sleepUntil(System.nanoTime() + 100_000_000L);
+            } catch (SocketTimeoutException e) {
+                errors.get(Failure.TIMEOUT).increment();
+            } catch (IOException e) {
+                if (System.nanoTime() >= end) interrupted.increment();
+                else errors.get(Failure.IO).increment();
+            }
+        }
+    }
+
+    private static void progress(long start, F4Histogram rtt) {
+        long[] q = rtt.snapshot(0.5, 0.99);
+        System.out.printf(Locale.ROOT, "%4.0f s  partite %d  mosse %d  rtt p50 %d us p99 %d us  errori %d%n",
+                (System.nanoTime() - start) / 1e9, games.sum() / 2, moves.sum(), q[1], q[2],
+                errors.values().stream().mapToLong(LongAdder::sum).sum());
+    }
+
+    private static void sleepUntil(long t) {
+        long ms;
+        while ((ms = (t - System.nanoTime()) / 1_000_000) > 0) {
+            try { Thread.sleep(ms); } catch (InterruptedException e) { return; }
+        }
+    }
+}
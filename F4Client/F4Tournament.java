@@ -0,0 +1,305 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Torneo tra strategie CPU, senza GUI ne' socket: ogni coppia ordinata di
+ * giocatori (quindi entrambi i colori) gioca N partite su ogni dimensione di
+ * board, con le regole di F4Board. Le partite sono spezzate in intervalli su
+ * un ForkJoinPool, che si divide il lavoro per work stealing; ogni thread ha
+ * le sue istanze delle strategie e le sue board, e somma gli esiti in locale
+ * per poi aggiungerli alla tabella comune una volta per intervallo. In memoria
+ * restano solo i contatori, qualunque sia il numero di partite.
+ *
+ * La partita numero g dipende solo da g e dal seme: le prime --opening
+ * semimosse sono casuali (altrimenti due strategie deterministiche
+ * giocherebbero sempre la stessa partita) e ogni strategia viene preparata
+ * con reset(seme della partita). --replay=g la rigioca e ne stampa le mosse.
+ *
+ * Uso: java F4Tournament [--players=random,greedy,center,solver:d4]
+ *          [--sizes=6x7] [--games=1000] [--threads=N] [--seed=1]
+ *          [--opening=2] [--replay=g]
+ * --games sono le partite per coppia ordinata e dimensione; solver:dN cerca a
+ * profondita' N, solver:MS a tempo (veloce ma non riproducibile).
+ */
+public class F4Tournament {
+    private static final int CHUNK = 64;
+    private static final int WIN = 0, DRAW = 1, LOSS = 2;
+
+    private final String[] players;
+    private final int[][] sizes;
+    private final long games, seed;
+    private final int opening;
+    private final int pairs;
+    // [dimensione][primo][secondo][vittorie, pari, sconfitte del primo]
+    private final AtomicLongArray results;
+    private final LongAdder played = new LongAdder(), moves = new LongAdder();
+    private final ThreadLocal<F4Bot.Strategy[]> strategies;
+    private final ThreadLocal<F4Board[]> boards;
+
+    F4Tournament(String[] players, int[][] sizes, long games, long seed, int opening) {
+        if (players.length < 2) throw new IllegalArgumentException("Servono almeno due giocatori");
+        this.players = players;
+        this.sizes = sizes;
+        this.games = games;
+        this.seed = seed;
+        this.opening = opening;
+        this.pairs = players.length * (players.length - 1);
+        this.results = new AtomicLongArray(sizes.length * players.length * players.length * 3);
+        this.strategies = ThreadLocal.withInitial(() -> {
+            F4Bot.Strategy[] s = new F4Bot.Strategy[players.length];
+            for (int i = 0; i < s.length; i++) s[i] = F4Bot.strategy(players[i], 0);
+            return s;
+        });
+        this.boards = ThreadLocal.withInitial(() -> {
+            F4Board[] b = new F4Board[sizes.length];
+            for (int i = 0; i < b.length; i++) b[i] = new F4Board(sizes[i][0], sizes[i][1]);
+            return b;
+        });
+    }
+
+    long total() { return sizes.length * pairs * games; }
+
+    /** Dimensione, primo e secondo giocatore della partita g. */
+    private int[] decode(long g) {
+        int size = (int) (g / (pairs * games));
+        int pair = (int) (g % (pairs * games) / games);
+        int first = pair / (players.length - 1), second = pair % (players.length - 1);
+        if (second >= first) second++;
+        return new int[] {size, first, second};
+    }
+
+    /**
+     * Gioca la partita g e ritorna WIN, DRAW o LOSS per chi muove per primo.
+     * Una mossa non valida perde la partita. Con trace != null vi scrive le colonne giocate.
+     */
+    int play(long g, List<Integer> trace) {
+        int[] d = decode(g);
+        F4Bot.Strategy[] s = strategies.get();
+        F4Bot.Strategy[] side = {s[d[1]], s[d[2]]};
+        F4Board b = boards.get()[d[0]];
+        b.clear();
+        long gameSeed = mix(seed ^ mix(g));
+        side[0].reset(mix(gameSeed + 1));
+        side[1].reset(mix(gameSeed + 2));
+        long rng = gameSeed;
+        while (true) {
+            int who = b.moves() & 1;
+            int c;
+            if (b.moves() < opening) {
+                do { rng = mix(rng); c = (int) ((rng >>> 1) % b.cols); } while (!b.canPlay(c));
+            } else {
+                c = side[who].move(b, who);
+            }
+            if (trace != null) trace.add(c);
+            if (!b.canPlay(c)) return who == 0 ? LOSS : WIN;
+            b.drop(c, who);
+            if (b.lastMoveWins()) return who == 0 ? WIN : LOSS;
+            if (b.isFull()) return DRAW;
+        }
+    }
+
+    private final class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final long lo, hi;
+
+        Range(long lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > CHUNK) {
+                long mid = (lo + hi) >>> 1;
+                invokeAll(new Range(lo, mid), new Range(mid, hi));
+                return;
+            }
+            // Un intervallo ha una sola coppia o poche: si accumula in locale e si pubblica alla fine
+            long[] local = new long[results.length()];
+            long before = 0;
+            F4Board[] bs = boards.get();
+            for (long g = lo; g < hi; g++) {
+                int[] d = decode(g);
+                int r = play(g, null);
+                local[index(d[0], d[1], d[2]) + r]++;
+                before += bs[d[0]].moves();
+            }
+            for (int i = 0; i < local.length; i++) if (local[i] != 0) results.addAndGet(i, local[i]);
+            played.add(hi - lo);
+            moves.add(before);
+        }
+    }
+
+    private int index(int size, int first, int second) {
+        return ((size * players.length + first) * players.length + second) * 3;
+    }
+
+    void run(int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long t0 = System.nanoTime();
+        Thread progress = new Thread(() -> {
+            while (true) {
+                try { Thread.sleep(5000); } catch (InterruptedException e) { return; }
+                double secs = (System.nanoTime() - t0) / 1e9;
+                System.out.printf(Locale.ROOT, "%4.0f s  partite %d/%d  %.0f/s%n", secs, played.sum(), total(), played.sum() / secs);
+            }
+        }, "progressi");
+        progress.setDaemon(true);
+        progress.start();
+        pool.invoke(new Range(0, total()));
+        progress.interrupt();
+        pool.shutdown();
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.out.printf(Locale.ROOT, "%n%d partite, %d mosse in %.1f s: %.0f partite/s con %d thread%n",
+                played.sum(), moves.sum(), secs, played.sum() / secs, threads);
+    }
+
+    void report() {
+        int n = players.length;
+        int w = 8;
+        for (String p : players) w = Math.max(w, p.length());
+        double[][] score = new double[n][n], count = new double[n][n];
+        long firstScore2 = 0, all = 0;
+        for (int s = 0; s < sizes.length; s++) {
+            System.out.printf(Locale.ROOT, "%nBoard %dx%d - righe: chi muove per primo, colonne: il secondo; V/P/S del primo%n", sizes[s][0], sizes[s][1]);
+            System.out.printf(Locale.ROOT, "%-" + w + "s", "");
+            for (String p : players) System.out.printf(Locale.ROOT, " %20s", p);
+            System.out.println();
+            for (int i = 0; i < n; i++) {
+                System.out.printf(Locale.ROOT, "%-" + w + "s", players[i]);
+                for (int j = 0; j < n; j++) {
+                    if (i == j) { System.out.printf(Locale.ROOT, " %20s", "-"); continue; }
+                    int k = index(s, i, j);
+                    long v = results.get(k), d = results.get(k + 1), l = results.get(k + 2);
+                    System.out.printf(Locale.ROOT, " %20s", v + "/" + d + "/" + l);
+                    score[i][j] += v + d / 2.0;
+                    score[j][i] += l + d / 2.0;
+                    count[i][j] += v + d + l;
+                    count[j][i] += v + d + l;
+                    firstScore2 += 2 * v + d;
+                    all += v + d + l;
+                }
+                System.out.println();
+            }
+        }
+
+        double[] elo = elo(score, count);
+        System.out.printf(Locale.ROOT, "%nClassifica (tutte le dimensioni, entrambi i colori)%n");
+        System.out.printf(Locale.ROOT, "%-" + w + "s %10s %8s %8s%n", "giocatore", "partite", "punti%", "Elo");
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(elo[b], elo[a]));
+        for (int i : order) {
+            double g = 0, pts = 0;
+            for (int j = 0; j < n; j++) { g += count[i][j]; pts += score[i][j]; }
+            System.out.printf(Locale.ROOT, "%-" + w + "s %10.0f %7.1f%% %+8.0f%n", players[i], g, 100 * pts / Math.max(1, g), elo[i]);
+        }
+        System.out.printf(Locale.ROOT, "Punti di chi muove per primo: %.1f%%%n", 50.0 * firstScore2 / Math.max(1, all));
+    }
+
+    /**
+     * Elo dal modello di Bradley-Terry (pari = mezzo punto per parte), stimato
+     * con l'algoritmo MM; una patta virtuale per coppia evita valutazioni
+     * infinite per chi vince o perde tutto. Media zero.
+     */
+    static double[] elo(double[][] score, double[][] count) {
+        int n = score.length;
+        double[] gamma = new double[n], next = new double[n];
+        Arrays.fill(gamma, 1);
+        for (int it = 0; it < 10_000; it++) {
+            double change = 0, logSum = 0;
+            for (int i = 0; i < n; i++) {
+                double wins = 0, den = 0;
+                for (int j = 0; j < n; j++) {
+                    if (i == j) continue;
+                    wins += score[i][j] + 0.5;
+                    den += (count[i][j] + 1) / (gamma[i] + gamma[j]);
+                }
+                next[i] = wins / den;
+                logSum += Math.log(next[i]);
+            }
+            double norm = Math.exp(logSum / n);
+            for (int i = 0; i < n; i++) {
+                double v = next[i] / norm;
+                change = Math.max(change, Math.abs(Math.log(v / gamma[i])));
+                gamma[i] = v;
+            }
+            if (change < 1e-9) break;
+        }
+        double[] elo = new double[n];
+        for (int i = 0; i < n; i++) elo[i] = 400 * Math.log10(gamma[i]);
+        return elo;
+    }
+
+    /** Rigioca la partita g e ne stampa giocatori, board, mosse ed esito. */
+    void replay(long g) {
+        if (g < 0 || g >= total()) throw new IllegalArgumentException("Partita inesistente: " + g);
+        int[] d = decode(g);
+        List<Integer> trace = new ArrayList<>();
+        int r = play(g, trace);
+        System.out.printf(Locale.ROOT, "Partita %d: %s (primo) contro %s, board %dx%d, seme %d%n",
+                g, players[d[1]], players[d[2]], sizes[d[0]][0], sizes[d[0]][1], seed);
+        System.out.println("Colonne: " + trace);
+        System.out.println(r == DRAW ? "Pareggio" : "Vince " + players[r == WIN ? d[1] : d[2]]);
+    }
+
+    /** SplitMix64: da un numero qualsiasi un valore ben mescolato. */
+    static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static void main(String[] args) {
+        String[] players = {"random", "greedy", "center", "solver:d4"};
+        int[][] sizes = {{6, 7}};
+        long games = 1000, seed = 1, replay = -1;
+        int threads = Runtime.getRuntime().availableProcessors(), opening = 2;
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            String k = eq < 0 ? a : a.substring(0, eq), v = eq < 0 ? "" : a.substring(eq + 1);
+            switch (k) {
+                case "--players": players = v.split(","); break;
+                case "--sizes":
+                    String[] ss = v.split(",");
+                    sizes = new int[ss.length][];
+                    for (int i = 0; i < ss.length; i++) {
+                        String[] rc = ss[i].split("x");
+                        sizes[i] = new int[] {Integer.parseInt(rc[0]), Integer.parseInt(rc[1])};
+                    }
+                    break;
+                case "--games": games = Long.parseLong(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--seed": seed = Long.parseLong(v); break;
+                case "--opening": opening = Integer.parseInt(v); break;
+                case "--replay": replay = Long.parseLong(v); break;
+                default:
+                    System.err.println("Opzione sconosciuta: " + a);
+                    System.exit(2);
+            }
+        }
+        F4Tournament t;
+        try {
+            t = new F4Tournament(players, sizes, games, seed, opening);
+            if (replay >= 0) {
+                t.replay(replay);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        System.out.printf(Locale.ROOT, "%d giocatori, %d dimensioni, %d partite per coppia ordinata: %d partite, seme %d%n",
+                players.length, sizes.length, games, t.total(), seed);
+        t.run(threads);
+        t.report();
+    }
+}
@@ -0,0 +1,782 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archivio delle partite finite: un file di dati e uno di indice per giorno
+ * (UTC, dall'ora di fine partita), games-aaaammgg.f4a e .f4i, scritti solo
+ * in coda.
+ *
+ * I dati sono blocchi compressi (deflate) di circa BLOCK byte di record:
+ * <pre>
+ *   blocco  magic int | record int | byte in chiaro int | byte compressi int | CRC32C int | dati
+ *   record  lunghezza | ora (differenza dal record prima) | id | righe | colonne | sim1 | sim2
+ *           | esito byte | nome1 | nome2 | mosse | mosse iniziali | giocatori iniziali | colonne
+ * </pre>
+ * Gli interi sono varint, i nomi lunghezza + UTF-8. Le colonne sono impacchettate
+ * in mezzi byte (4 bit) se la board ne ha al massimo 16, altrimenti in un byte o
+ * in due. Una partita ripresa dal journal non ha la storia delle mosse fatte
+ * prima del riavvio: la posizione di partenza e' scritta come "mosse iniziali",
+ * colonna per colonna dal basso, con un bit per il giocatore di ciascuna.
+ *
+ * L'indice e' sparso, una voce per blocco: posizione, lunghezza, record, ora
+ * minima e massima e un filtro di Bloom dei nomi, di 10-20 bit per nome
+ * distinto del blocco (al massimo BLOOM_BITS: un blocco pieno di nomi tutti
+ * diversi ne ha circa 3400, che stanno in 64 Kbit). Chi cerca un
+ * giocatore o un intervallo di date salta i file e i blocchi che non possono
+ * contenerlo senza leggerli. L'indice si scrive dopo il blocco: se un crash
+ * lo lascia indietro lo ricostruisce il Writer alla riapertura, e nel frattempo
+ * chi legge prosegue oltre l'ultima voce seguendo le intestazioni dei blocchi.
+ *
+ * La lettura (scan) procede un blocco alla volta con buffer riusati e passa al
+ * visitatore sempre lo stesso Game: i nomi restano byte nel blocco finche'
+ * qualcuno non li chiede.
+ */
+public class F4Archive {
+    public static final int DRAW = 0, WIN1 = 1, WIN2 = 2, TIMEOUT = 4, LEFT = 8;
+    private static final int MAGIC = 0x46344131;
+    private static final int HEADER = 20;
+    static final int BLOCK = 64 << 10;
+    private static final int BLOOM_BITS = 65536, BLOOM_K = 3;
+    // posizione long | lunghezza int | record int | ora minima long | massima long | byte del filtro int | filtro
+    private static final int ENTRY = 36;
+    private static final long DAY_MS = 86_400_000L;
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /**
+     * Una partita. In scrittura la costruisce chi gioca (add a ogni mossa); in
+     * lettura e' riusata da un record all'altro e vale solo dentro il visitatore.
+     */
+    public static final class Game {
+        public int id;
+        public long time;
+        public int rows, cols;
+        public char sym1, sym2;
+        public int result;
+        private String name1, name2;
+        private byte[] src;
+        private int name1At, name1Len, name2At, name2Len;
+        private int[] moves = new int[64];
+        private byte[] players = new byte[64];
+        private int count, setup;
+
+        private Game() {}
+
+        public Game(int id, int rows, int cols, char sym1, char sym2, String name1, String name2) {
+            this.id = id;
+            this.rows = rows;
+            this.cols = cols;
+            this.sym1 = sym1;
+            this.sym2 = sym2;
+            this.name1 = name1;
+            this.name2 = name2;
+        }
+
+        public void add(int col, int player) {
+            if (count == moves.length) {
+                moves = Arrays.copyOf(moves, count * 2);
+                players = Arrays.copyOf(players, count * 2);
+            }
+            moves[count] = col;
+            players[count++] = (byte) player;
+        }
+
+        /** Le mosse aggiunte fin qui sono la posizione di partenza di una partita ripresa. */
+        public void markSetup() { setup = count; }
+
+        public int moves() { return count; }
+
+        public int move(int i) { return moves[i]; }
+
+        /** 0 o 1; dopo le mosse iniziali si alterna a partire dal primo giocatore. */
+        public int player(int i) { return i < setup ? players[i] : i & 1; }
+
+        public int setup() { return setup; }
+
+        /** 0 o 1, -1 per il pareggio. */
+        public int winner() {
+            int w = result & 3;
+            return w == WIN1 ? 0 : w == WIN2 ? 1 : -1;
+        }
+
+        public String name1() {
+            if (name1 == null) name1 = new String(src, name1At, name1Len, StandardCharsets.UTF_8);
+            return name1;
+        }
+
+        public String name2() {
+            if (name2 == null) name2 = new String(src, name2At, name2Len, StandardCharsets.UTF_8);
+            return name2;
+        }
+
+        /** Rigioca le mosse su b (rows x cols, viene svuotata); false se una mossa non e' valida. */
+        public boolean replay(F4Board b) {
+            b.clear();
+            for (int i = 0; i < count; i++) {
+                if (!b.canPlay(moves[i])) return false;
+                b.drop(moves[i], player(i));
+            }
+            return true;
+        }
+    }
+
+    // --- scrittura ---
+
+    /**
+     * Scrive in coda all'archivio. append codifica il record nel blocco in
+     * costruzione (breve, sotto il lock del Writer); comprimere e scrivere su
+     * disco tocca al thread "archive", quando il blocco e' pieno, cambia il
+     * giorno o sono passati flushMs. Niente fsync a ogni blocco: l'archivio non
+     * e' il journal, dopo un crash della macchina si possono perdere gli
+     * ultimi blocchi.
+     */
+    public static final class Writer implements Closeable {
+        private static final class Sealed {
+            final byte[] raw, bloom;
+            final int len, count;
+            final long day, minTime, maxTime;
+
+            Sealed(byte[] raw, int len, int count, long day, long minTime, long maxTime, byte[] bloom) {
+                this.raw = raw;
+                this.len = len;
+                this.count = count;
+                this.day = day;
+                this.minTime = minTime;
+                this.maxTime = maxTime;
+                this.bloom = bloom;
+            }
+        }
+
+        private static final Sealed END = new Sealed(null, 0, 0, 0, 0, 0, null);
+
+        private final Path dir;
+        private final long flushNanos;
+        private final Consumer<String> warn;
+        private final LinkedBlockingQueue<Sealed> sealed = new LinkedBlockingQueue<>();
+        private final Thread thread;
+
+        // Blocco in costruzione, sotto il lock del Writer
+        private Buf block = new Buf(BLOCK + 1024);
+        private final Buf rec = new Buf(256);
+        private long[] names = new long[2 * 2048];
+        private int count;
+        private long day, minTime, maxTime, lastTime, openedAt;
+        private boolean closed;
+
+        // Solo il thread dell'archivio
+        private final Deflater deflater;
+        private final CRC32C crc = new CRC32C();
+        private final Blocks blocks = new Blocks();
+        private final ByteBuffer head = ByteBuffer.allocate(HEADER), entry = ByteBuffer.allocate(ENTRY + BLOOM_BITS / 8);
+        private byte[] out = new byte[BLOCK];
+        private FileChannel data, index;
+        private long fileDay = Long.MIN_VALUE, dataEnd;
+        private boolean failed;
+
+        /**
+         * level e' quello di Deflater: 0 lascia i blocchi in chiaro (dentro lo
+         * stesso formato), che si leggono molto piu' in fretta ma occupano il
+         * doppio. warn riceve gli errori di scrittura: dopo il primo l'archivio
+         * smette di scrivere.
+         */
+        public Writer(Path dir, int level, long flushMs, Consumer<String> warn) throws IOException {
+            this.dir = dir;
+            this.deflater = new Deflater(level, true);
+            this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMs);
+            this.warn = warn;
+            Files.createDirectories(dir);
+            thread = new Thread(this::run, "archive");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public synchronized void append(Game g) {
+            if (closed) return;
+            long d = Math.floorDiv(g.time, DAY_MS);
+            if (count > 0 && d != day) seal();
+            if (count == 0) {
+                day = d;
+                lastTime = 0;
+                minTime = Long.MAX_VALUE;
+                maxTime = Long.MIN_VALUE;
+                openedAt = System.nanoTime();
+            }
+            Buf r = rec;
+            r.n = 0;
+            r.varlong((g.time - lastTime) << 1 ^ (g.time - lastTime) >> 63);
+            r.varint(g.id);
+            r.varint(g.rows);
+            r.varint(g.cols);
+            r.varint(g.sym1);
+            r.varint(g.sym2);
+            r.put(g.result);
+            int n1 = r.string(g.name1), l1 = r.n - n1;
+            int n2 = r.string(g.name2), l2 = r.n - n2;
+            r.varint(g.count);
+            r.varint(g.setup);
+            for (int i = 0; i < g.setup; i += 8) {
+                int bits = 0;
+                for (int j = i; j < Math.min(i + 8, g.setup); j++) bits |= g.players[j] << (j - i);
+                r.put(bits);
+            }
+            int width = width(g.cols);
+            for (int i = 0; i < g.count; i++) {
+                if (width == 4) {
+                    r.put(g.moves[i] | (i + 1 < g.count ? g.moves[i + 1] << 4 : 0));
+                    i++;
+                } else {
+                    if (width == 16) r.put(g.moves[i] >>> 8);
+                    r.put(g.moves[i]);
+                }
+            }
+            block.varint(r.n);
+            int at = block.n;
+            block.bytes(r.a, 0, r.n);
+            if (2 * count + 2 > names.length) names = Arrays.copyOf(names, names.length * 2);
+            names[2 * count] = hash(block.a, at + n1, l1);
+            names[2 * count + 1] = hash(block.a, at + n2, l2);
+            lastTime = g.time;
+            minTime = Math.min(minTime, g.time);
+            maxTime = Math.max(maxTime, g.time);
+            count++;
+            if (block.n >= BLOCK) seal();
+        }
+
+        /** Scrive il blocco in corso anche se non e' pieno. */
+        public synchronized void flush() {
+            if (count > 0) seal();
+        }
+
+        /** Scrive quello che resta e chiude i file; l'archivio non accetta piu' partite. */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) return;
+                if (count > 0) seal();
+                closed = true;
+                sealed.add(END);
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void seal() {
+            sealed.add(new Sealed(block.a, block.n, count, day, minTime, maxTime, bloom(names, 2 * count)));
+            block = new Buf(BLOCK + 1024);
+            count = 0;
+        }
+
+        private void run() {
+            while (true) {
+                Sealed s;
+                try {
+                    s = sealed.poll(Math.max(1, flushNanos / 2), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (s == null) {
+                    synchronized (this) {
+                        if (count > 0 && System.nanoTime() - openedAt >= flushNanos) seal();
+                    }
+                    continue;
+                }
+                if (s == END) break;
+                if (failed) continue;
+                try {
+                    write(s);
+                } catch (IOException e) {
+                    failed = true;
+                    warn.accept("Archivio non piu' scritto: " + e.getMessage());
+                }
+            }
+            closeFiles();
+        }
+
+        private void write(Sealed s) throws IOException {
+            if (s.day != fileDay) open(s.day);
+            deflater.reset();
+            deflater.setInput(s.raw, 0, s.len);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) out = Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            crc.reset();
+            crc.update(out, 0, n);
+            head.clear();
+            head.putInt(MAGIC).putInt(s.count).putInt(s.len).putInt(n).putInt((int) crc.getValue()).flip();
+            long at = dataEnd;
+            writeFully(data, head, at);
+            writeFully(data, ByteBuffer.wrap(out, 0, n), at + HEADER);
+            dataEnd = at + HEADER + n;
+            writeEntry(at, HEADER + n, s.count, s.minTime, s.maxTime, s.bloom);
+        }
+
+        private void writeEntry(long at, int len, int count, long minTime, long maxTime, byte[] bloom) throws IOException {
+            entry.clear();
+            entry.putLong(at).putInt(len).putInt(count).putLong(minTime).putLong(maxTime).putInt(bloom.length).put(bloom).flip();
+            writeFully(index, entry, index.size());
+        }
+
+        /**
+         * Apre (o riapre) il file del giorno d e rimette in pari dati e indice:
+         * le voci che puntano oltre i dati si scartano, i blocchi interi non
+         * ancora indicizzati si indicizzano e un blocco scritto a meta' si taglia.
+         */
+        private void open(long d) throws IOException {
+            closeFiles();
+            String base = "games-" + LocalDate.ofEpochDay(d).format(DAY);
+            data = FileChannel.open(dir.resolve(base + ".f4a"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index = FileChannel.open(dir.resolve(base + ".f4i"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileDay = d;
+            long size = data.size(), end = 0;
+            // Le voci intere che puntano a blocchi interi restano, dalla prima che non torna si taglia
+            ByteBuffer idx = ByteBuffer.allocate((int) index.size());
+            readFully(index, idx, 0);
+            int e = 0;
+            while (e + ENTRY <= idx.limit()) {
+                int next = e + ENTRY + idx.getInt(e + 32);
+                long at = idx.getLong(e);
+                if (next > idx.limit() || idx.getInt(e + 32) < 0 || at + idx.getInt(e + 8) > size) break;
+                end = at + idx.getInt(e + 8);
+                e = next;
+            }
+            index.truncate(e);
+            long next;
+            while ((next = blocks.read(data, end, size)) >= 0) {
+                long[] range = new long[2];
+                byte[] bl = blocks.summarize(range);
+                writeEntry(end, (int) (next - end), blocks.count, range[0], range[1], bl);
+                end = next;
+            }
+            data.truncate(end);
+            dataEnd = end;
+        }
+
+        private void closeFiles() {
+            for (FileChannel ch : new FileChannel[] {data, index}) {
+                if (ch == null) continue;
+                try {
+                    ch.force(true);
+                    ch.close();
+                } catch (IOException e) {}
+            }
+            data = index = null;
+        }
+    }
+
+    // --- lettura ---
+
+    /**
+     * Passa a visitor le partite di dir giocate da player (null per tutte) e
+     * finite tra from (compreso) e to (escluso), in ms epoch; ritorna quante.
+     * I file sono in ordine di giorno, le partite di un file in ordine di
+     * scrittura. visitor riceve sempre lo stesso Game.
+     */
+    public static long scan(Path dir, String player, long from, long to, Consumer<Game> visitor) throws IOException {
+        return scan(dir, player, from, to, visitor, new Blocks());
+    }
+
+    /** Come sopra, con i buffer (e i contatori dei byte letti) di b. */
+    static long scan(Path dir, String player, long from, long to, Consumer<Game> visitor, Blocks b) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "games-*.f4a")) {
+            for (Path p : ds) files.add(p);
+        }
+        files.sort(null);
+        byte[] who = player == null ? null : player.getBytes(StandardCharsets.UTF_8);
+        long h = who == null ? 0 : hash(who, 0, who.length);
+        Game g = new Game();
+        long n = 0;
+        for (Path f : files) {
+            String name = f.getFileName().toString();
+            long d;
+            try {
+                d = LocalDate.parse(name.substring(6, name.length() - 4), DAY).toEpochDay();
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if ((d + 1) * DAY_MS <= from || d * DAY_MS >= to) continue;
+            Path ip = f.resolveSibling(name.substring(0, name.length() - 4) + ".f4i");
+            ByteBuffer idx = ByteBuffer.wrap(Files.exists(ip) ? Files.readAllBytes(ip) : new byte[0]);
+            try (FileChannel ch = FileChannel.open(f, StandardOpenOption.READ)) {
+                long size = ch.size(), end = 0;
+                for (int e = 0, next; e + ENTRY <= idx.limit(); e = next) {
+                    long at = idx.getLong(e);
+                    int len = idx.getInt(e + 8), bloom = idx.getInt(e + 32);
+                    next = e + ENTRY + bloom;
+                    if (bloom < 0 || next > idx.limit() || at + len > size) break;
+                    end = at + len;
+                    if (idx.getLong(e + 16) >= to || idx.getLong(e + 24) < from) continue;
+                    if (who != null && !bloomHas(idx.array(), e + ENTRY, bloom, h)) continue;
+                    if (b.read(ch, at, size) < 0) throw new IOException("Blocco danneggiato: " + f + " a " + at);
+                    n += b.visit(g, who, from, to, visitor);
+                }
+                // Blocchi non ancora indicizzati: un Writer al lavoro o fermato da un crash
+                long next;
+                while ((next = b.read(ch, end, size)) >= 0) {
+                    n += b.visit(g, who, from, to, visitor);
+                    end = next;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Uso: java F4Archive <cartella> [--player=nome] [--from=aaaa-mm-gg] [--to=aaaa-mm-gg] [--export] [--replay]
+     *
+     * Senza --export stampa un riepilogo: partite, esiti e velocita' di lettura.
+     * --export scrive una riga per partita, campi separati da tab: id, ora, righe,
+     * colonne, sim1, sim2, nome1, nome2, esito (1-0, 0-1, 1/2, con :tempo o
+     * :abbandono), colonne giocate (da 0, separate da virgole) e, per una partita
+     * ripresa, il giocatore (0 o 1) di ciascuna mossa iniziale.
+     * --replay rigioca ogni partita su una board e conta quelle il cui esito non
+     * torna con le mosse.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: java F4Archive <cartella> [--player=nome] [--from=aaaa-mm-gg] [--to=aaaa-mm-gg] [--export] [--replay]");
+            System.exit(1);
+        }
+        String player = null;
+        long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+        boolean export = false, replay = false;
+        for (int i = 1; i < args.length; i++) {
+            String a = args[i];
+            if (a.startsWith("--player=")) player = a.substring(9);
+            else if (a.startsWith("--from=")) from = LocalDate.parse(a.substring(7)).toEpochDay() * DAY_MS;
+            else if (a.startsWith("--to=")) to = (LocalDate.parse(a.substring(5)).toEpochDay() + 1) * DAY_MS;
+            else if (a.equals("--export")) export = true;
+            else if (a.equals("--replay")) replay = true;
+            else {
+                System.err.println("Opzione non valida: " + a);
+                System.exit(1);
+            }
+        }
+
+        // partite, vince 1, vince 2, pari, tempo, abbandono, mosse, esiti che non tornano
+        long[] c = new long[8];
+        F4Board[] board = new F4Board[1];
+        Export out = export ? new Export() : null;
+        boolean check = replay;
+        long t0 = System.nanoTime();
+        Blocks b = new Blocks();
+        scan(Paths.get(args[0]), player, from, to, g -> {
+            c[0]++;
+            c[g.winner() < 0 ? 3 : 1 + g.winner()]++;
+            if ((g.result & TIMEOUT) != 0) c[4]++;
+            if ((g.result & LEFT) != 0) c[5]++;
+            c[6] += g.count;
+            if (check) {
+                F4Board bd = board[0];
+                if (bd == null || bd.rows != g.rows || bd.cols != g.cols) bd = board[0] = new F4Board(g.rows, g.cols);
+                if (!consistent(g, bd)) c[7]++;
+            }
+            if (out != null) out.line(g);
+        }, b);
+        if (out != null) out.flush();
+        double el = (System.nanoTime() - t0) / 1e9;
+        PrintStream report = export ? System.err : System.out;
+        report.printf(Locale.ROOT, "%d partite: vince il primo %d, il secondo %d, pari %d (tempo scaduto %d, abbandonate %d), %d mosse%n",
+                c[0], c[1], c[2], c[3], c[4], c[5], c[6]);
+        if (replay) report.printf(Locale.ROOT, "rigiocate: %d con un esito che non torna%n", c[7]);
+        report.printf(Locale.ROOT, "%.2f s, %.0f partite/s, letti %.1f MB (%.1f MB/s), decompressi %.1f MB (%.1f MB/s)%n",
+                el, c[0] / el, b.compBytes / 1e6, b.compBytes / 1e6 / el, b.rawBytes / 1e6, b.rawBytes / 1e6 / el);
+    }
+
+    /** L'esito registrato torna con le mosse? Per abbandoni e tempo scaduto basta che le mosse siano valide. */
+    static boolean consistent(Game g, F4Board b) {
+        if (!g.replay(b)) return false;
+        if ((g.result & (TIMEOUT | LEFT)) != 0) return true;
+        int w = g.winner();
+        if (w < 0) return b.isFull() && (g.count == 0 || !b.lastMoveWins());
+        return g.count > 0 && b.lastMoveWins() && g.player(g.count - 1) == w;
+    }
+
+    /** Righe dell'export, su stdout con un buffer grande. */
+    private static final class Export {
+        private final StringBuilder sb = new StringBuilder(256);
+        private final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+
+        void line(Game g) {
+            sb.setLength(0);
+            sb.append(g.id).append('\t').append(Instant.ofEpochMilli(g.time)).append('\t').append(g.rows).append('\t').append(g.cols)
+                    .append('\t').append(g.sym1).append('\t').append(g.sym2).append('\t').append(g.name1()).append('\t').append(g.name2())
+                    .append('\t').append(g.winner() == 0 ? "1-0" : g.winner() == 1 ? "0-1" : "1/2");
+            if ((g.result & TIMEOUT) != 0) sb.append(":tempo");
+            if ((g.result & LEFT) != 0) sb.append(":abbandono");
+            sb.append('\t');
+            for (int i = 0; i < g.count; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(g.moves[i]);
+            }
+            // Partita ripresa: di chi sono le mosse della posizione di partenza
+            sb.append('\t');
+            for (int i = 0; i < g.setup; i++) sb.append((char) ('0' + g.players[i]));
+            sb.append('\n');
+            try {
+                out.append(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void flush() throws IOException { out.flush(); }
+    }
+
+    /** Legge, verifica e decomprime un blocco alla volta, sempre negli stessi buffer. */
+    static final class Blocks {
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32C crc = new CRC32C();
+        private final ByteBuffer head = ByteBuffer.allocate(HEADER);
+        private byte[] comp = new byte[BLOCK];
+        byte[] raw = new byte[BLOCK + 1024];
+        int rawLen, count;
+        long compBytes, rawBytes;
+        private int p;
+
+        /** Blocco in at; ritorna dove finisce, -1 se li' non c'e' un blocco intero e integro. */
+        long read(FileChannel ch, long at, long size) throws IOException {
+            if (at + HEADER > size) return -1;
+            head.clear();
+            readFully(ch, head, at);
+            int magic = head.getInt(0), n = head.getInt(4), len = head.getInt(8), clen = head.getInt(12), sum = head.getInt(16);
+            if (magic != MAGIC || n < 0 || len < 0 || clen < 0 || at + HEADER + clen > size) return -1;
+            if (comp.length < clen) comp = new byte[clen];
+            if (raw.length < len) raw = new byte[len];
+            readFully(ch, ByteBuffer.wrap(comp, 0, clen), at + HEADER);
+            crc.reset();
+            crc.update(comp, 0, clen);
+            if ((int) crc.getValue() != sum) return -1;
+            inflater.reset();
+            inflater.setInput(comp, 0, clen);
+            try {
+                int got = 0;
+                while (got < len && !inflater.finished()) {
+                    int k = inflater.inflate(raw, got, len - got);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) return -1;
+                    got += k;
+                }
+                if (got != len) return -1;
+            } catch (DataFormatException e) {
+                return -1;
+            }
+            rawLen = len;
+            count = n;
+            compBytes += HEADER + clen;
+            rawBytes += len;
+            return at + HEADER + clen;
+        }
+
+        /** Le partite del blocco letto che passano i filtri, a visitor. */
+        int visit(Game g, byte[] who, long from, long to, Consumer<Game> visitor) {
+            byte[] r = raw;
+            int n = 0;
+            long time = 0;
+            p = 0;
+            while (p < rawLen) {
+                int len = varint();
+                int end = p + len;
+                long dt = varlong();
+                time += dt >>> 1 ^ -(dt & 1);
+                if (time < from || time >= to) { p = end; continue; }
+                g.time = time;
+                g.id = varint();
+                g.rows = varint();
+                g.cols = varint();
+                g.sym1 = (char) varint();
+                g.sym2 = (char) varint();
+                g.result = r[p++];
+                g.name1Len = varint();
+                g.name1At = p;
+                p += g.name1Len;
+                g.name2Len = varint();
+                g.name2At = p;
+                p += g.name2Len;
+                if (who != null && !same(r, g.name1At, g.name1Len, who) && !same(r, g.name2At, g.name2Len, who)) { p = end; continue; }
+                g.src = r;
+                g.name1 = g.name2 = null;
+                int count = varint(), setup = varint();
+                if (g.moves.length < count) {
+                    g.moves = new int[count];
+                    g.players = new byte[count];
+                }
+                for (int i = 0; i < setup; i++) g.players[i] = (byte) (r[p + (i >>> 3)] >>> (i & 7) & 1);
+                p += (setup + 7) >>> 3;
+                int width = width(g.cols);
+                int[] m = g.moves;
+                if (width == 4) {
+                    for (int i = 0; i < count; i += 2) {
+                        int b = r[p++];
+                        m[i] = b & 15;
+                        if (i + 1 < count) m[i + 1] = b >>> 4 & 15;
+                    }
+                } else if (width == 8) {
+                    for (int i = 0; i < count; i++) m[i] = r[p++] & 255;
+                } else {
+                    for (int i = 0; i < count; i++, p += 2) m[i] = (r[p] & 255) << 8 | r[p + 1] & 255;
+                }
+                g.count = count;
+                g.setup = setup;
+                p = end;
+                visitor.accept(g);
+                n++;
+            }
+            return n;
+        }
+
+        /** Filtro dei nomi del blocco letto e, in range, le sue ore minima e massima (per ricostruire l'indice). */
+        byte[] summarize(long[] range) {
+            long[] names = new long[2 * count];
+            range[0] = Long.MAX_VALUE;
+            range[1] = Long.MIN_VALUE;
+            int[] n = new int[1];
+            visit(new Game(), null, Long.MIN_VALUE, Long.MAX_VALUE, g -> {
+                if (n[0] + 2 > names.length) return;
+                names[n[0]++] = hash(g.src, g.name1At, g.name1Len);
+                names[n[0]++] = hash(g.src, g.name2At, g.name2Len);
+                range[0] = Math.min(range[0], g.time);
+                range[1] = Math.max(range[1], g.time);
+            });
+            return bloom(names, n[0]);
+        }
+
+        private int varint() {
+            return (int) varlong();
+        }
+
+        private long varlong() {
+            byte[] r = raw;
+            long v = 0;
+            for (int s = 0; ; s += 7) {
+                byte b = r[p++];
+                v |= (long) (b & 0x7f) << s;
+                if (b >= 0) return v;
+            }
+        }
+    }
+
+    // --- strumenti comuni ---
+
+    /** Buffer di byte che cresce, con varint. */
+    private static final class Buf {
+        byte[] a;
+        int n;
+
+        Buf(int size) { a = new byte[size]; }
+
+        void put(int b) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = (byte) b;
+        }
+
+        void bytes(byte[] b, int off, int len) {
+            if (n + len > a.length) a = Arrays.copyOf(a, Math.max(n + len, a.length * 2));
+            System.arraycopy(b, off, a, n, len);
+            n += len;
+        }
+
+        void varint(int v) { varlong(v & 0xffffffffL); }
+
+        void varlong(long v) {
+            while ((v & ~0x7fL) != 0) {
+                put((int) (v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            put((int) v);
+        }
+
+        /** Lunghezza e UTF-8; ritorna l'offset dei byte del nome. */
+        int string(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            int at = n;
+            bytes(b, 0, b.length);
+            return at;
+        }
+    }
+
+    /** Bit per colonna: 4 fino a 16 colonne, poi 8 e 16. */
+    private static int width(int cols) {
+        return cols <= 16 ? 4 : cols <= 256 ? 8 : 16;
+    }
+
+    private static boolean same(byte[] a, int off, int len, byte[] b) {
+        if (len != b.length) return false;
+        for (int i = 0; i < len; i++) if (a[off + i] != b[i]) return false;
+        return true;
+    }
+
+    /** FNV-1a a 64 bit, rimescolato alla fine (i nomi simili differiscono in pochi bit). */
+    private static long hash(byte[] a, int off, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < len; i++) h = (h ^ (a[off + i] & 0xff)) * 0x100000001b3L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        return h ^ h >>> 33;
+    }
+
+    /**
+     * Filtro di Bloom degli hash dei nomi: almeno 10 bit per nome distinto,
+     * una potenza di 2 tra 64 e BLOOM_BITS. Riordina names.
+     */
+    private static byte[] bloom(long[] names, int n) {
+        // Si contano i nomi diversi: chi gioca molte partite nello stesso blocco non deve allargare il filtro
+        Arrays.sort(names, 0, n);
+        int distinct = 0;
+        for (int j = 0; j < n; j++) if (j == 0 || names[j] != names[j - 1]) distinct++;
+        int bits = Math.max(64, Math.min(BLOOM_BITS, Integer.highestOneBit(Math.max(1, distinct * 10 - 1)) << 1));
+        byte[] bloom = new byte[bits / 8];
+        for (int j = 0; j < n; j++) {
+            long h = names[j];
+            for (int i = 0; i < BLOOM_K; i++) {
+                int bit = (int) ((h + i * (h >>> 32 | 1)) & (bits - 1));
+                bloom[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return bloom;
+    }
+
+    private static boolean bloomHas(byte[] a, int off, int len, long h) {
+        int bits = len * 8;
+        if (len == 0 || Integer.bitCount(bits) != 1) return true;
+        for (int i = 0; i < BLOOM_K; i++) {
+            int bit = (int) ((h + i * (h >>> 32 | 1)) & (bits - 1));
+            if ((a[off + (bit >>> 3)] & (1 << (bit & 7))) == 0) return false;
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer b, long at) throws IOException {
+        while (b.hasRemaining()) {
+            int k = ch.read(b, at);
+            if (k < 0) throw new EOFException();
+            at += k;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b, long at) throws IOException {
+        while (b.hasRemaining()) at += ch.write(b, at);
+    }
+}
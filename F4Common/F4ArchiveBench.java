@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.zip.Deflater;
+
+/**
+ * Scrive un archivio di partite casuali sulla 6x7 (nomi presi da un insieme
+ * di utenti, ore sparse su alcuni giorni) e lo rilegge in vari modi, per
+ * vedere dove va il tempo: lettura dei file, decompressione, decodifica dei
+ * record, replay e ricerche per giocatore e per giorno. Con molti utenti
+ * quasi ogni nome di un blocco e' diverso: e' il caso che mette alla prova i
+ * filtri dei nomi nell'indice.
+ *
+ * Uso: java F4ArchiveBench [partite] [cartella] [giorni] [livello deflate] [utenti]
+ *      (default: 1000000 /tmp/f4-archive 30 -1 1000)
+ */
+public class F4ArchiveBench {
+    public static void main(String[] args) throws IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Paths.get(args.length > 1 ? args[1] : "/tmp/f4-archive");
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int level = args.length > 3 ? Integer.parseInt(args[3]) : Deflater.DEFAULT_COMPRESSION;
+        int users = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        if (Files.exists(dir)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "games-*")) {
+                for (Path p : ds) Files.delete(p);
+            }
+        }
+
+        SplittableRandom rnd = new SplittableRandom(1);
+        long start = LocalDate.of(2026, 1, 1).toEpochDay() * 86_400_000L, step = days * 86_400_000L / games;
+        F4Board b = new F4Board(6, 7);
+        long moves = 0, t0 = System.nanoTime();
+        F4Archive.Writer w = new F4Archive.Writer(dir, level, 1000, System.err::println);
+        for (int i = 0; i < games; i++) {
+            F4Archive.Game g = new F4Archive.Game(i, 6, 7, 'X', 'O', "bot" + rnd.nextInt(users), "bot" + rnd.nextInt(users));
+            b.clear();
+            int player = 0, result = F4Archive.DRAW;
+            while (!b.isFull()) {
+                int c;
+                do c = rnd.nextInt(7); while (!b.canPlay(c));
+                b.drop(c, player);
+                g.add(c, player);
+                if (b.lastMoveWins()) { result = player == 0 ? F4Archive.WIN1 : F4Archive.WIN2; break; }
+                // Qualche partita finisce prima, per tempo o abbandono
+                if (rnd.nextInt(200) == 0) { result = (player == 0 ? F4Archive.WIN1 : F4Archive.WIN2) | (rnd.nextBoolean() ? F4Archive.TIMEOUT : F4Archive.LEFT); break; }
+                player ^= 1;
+            }
+            moves += g.moves();
+            g.result = result;
+            g.time = start + i * step;
+            w.append(g);
+        }
+        w.close();
+        double el = (System.nanoTime() - t0) / 1e9;
+        long bytes = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "games-*")) {
+            for (Path p : ds) bytes += Files.size(p);
+        }
+        long index = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "games-*.f4i")) {
+            for (Path p : ds) index += Files.size(p);
+        }
+        System.out.printf(Locale.ROOT, "scrittura: %d partite (%.1f mosse in media, %d utenti) in %.2f s = %.0f/s, %.1f MB su disco = %.1f byte a partita (indice %.1f MB)%n",
+                games, (double) moves / games, users, el, games / el, bytes / 1e6, (double) bytes / games, index / 1e6);
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("-- giro " + (round + 1));
+            // Solo lettura dei file (dalla page cache): il limite dell'I/O su questa macchina
+            t0 = System.nanoTime();
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "games-*.f4a")) {
+                for (Path p : ds) {
+                    try (FileChannel ch = FileChannel.open(p)) {
+                        while (ch.read(buf) >= 0) buf.clear();
+                    }
+                }
+            }
+            report("lettura file", games, bytes, t0);
+
+            // Lettura e decompressione dei blocchi, senza decodificare i record
+            t0 = System.nanoTime();
+            F4Archive.Blocks bl = new F4Archive.Blocks();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "games-*.f4a")) {
+                for (Path p : ds) {
+                    try (FileChannel ch = FileChannel.open(p)) {
+                        long pos = 0, size = ch.size();
+                        while ((pos = bl.read(ch, pos, size)) >= 0) {}
+                    }
+                }
+            }
+            report("+ decompressione", games, bytes, t0);
+
+            long[] sum = new long[1];
+            t0 = System.nanoTime();
+            long n = F4Archive.scan(dir, null, Long.MIN_VALUE, Long.MAX_VALUE, g -> sum[0] += g.moves());
+            report("+ decodifica (scan)", n, bytes, t0);
+
+            long[] bad = new long[1];
+            t0 = System.nanoTime();
+            n = F4Archive.scan(dir, null, Long.MIN_VALUE, Long.MAX_VALUE, g -> { if (!F4Archive.consistent(g, b)) bad[0]++; });
+            report("+ replay su F4Board", n, bytes, t0);
+            if (bad[0] > 0) System.out.println("   esiti che non tornano: " + bad[0]);
+
+            F4Archive.Blocks counted = new F4Archive.Blocks();
+            t0 = System.nanoTime();
+            n = F4Archive.scan(dir, "bot42", Long.MIN_VALUE, Long.MAX_VALUE, g -> {}, counted);
+            report("giocatore bot42", n, counted.compBytes, t0);
+
+            counted = new F4Archive.Blocks();
+            t0 = System.nanoTime();
+            n = F4Archive.scan(dir, "nessuno", Long.MIN_VALUE, Long.MAX_VALUE, g -> {}, counted);
+            report("giocatore assente", n, counted.compBytes, t0);
+            // Quanto dell'archivio il filtro non riesce a scartare: idealmente poco piu' dell'1%
+            System.out.printf(Locale.ROOT, "   letto il %.1f%% dei byte compressi%n", 100.0 * counted.compBytes / (bytes - index));
+
+            counted = new F4Archive.Blocks();
+            long day = start + 10 * 86_400_000L;
+            t0 = System.nanoTime();
+            n = F4Archive.scan(dir, null, day, day + 86_400_000L, g -> {}, counted);
+            report("un giorno", n, counted.compBytes, t0);
+        }
+        System.exit(0);
+    }
+
+    private static void report(String what, long games, long bytes, long t0) {
+        double el = (System.nanoTime() - t0) / 1e9;
+        System.out.printf(Locale.ROOT, "%-22s %9d partite %8.1f ms %10.0f partite/s %8.1f MB/s su disco%n",
+                what, games, el * 1e3, games / el, bytes / 1e6 / el);
+    }
+}
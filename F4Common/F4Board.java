@@ -0,0 +1,161 @@
+/**
+ * Posizione di Forza 4 su bitboard, condivisa da server e client.
+ *
+ * Ogni colonna occupa rows+1 bit (l'ultimo resta sempre vuoto come sentinella,
+ * cosi' gli shift non "saltano" da una colonna all'altra). Il bit della cella a
+ * altezza k (0 = fondo) nella colonna c e' c*(rows+1)+k. Ogni giocatore ha la
+ * sua bitboard; se la board sta in 64 bit si usa un solo long per giocatore e la
+ * vittoria si verifica con shift e mask, altrimenti si ricade su un bitset a
+ * piu' parole e si controllano solo le celle attorno all'ultima mossa.
+ */
+public class F4Board {
+    public final int rows, cols;
+    private final int h;
+    private final boolean small;
+
+    // Caso piccolo: una parola per giocatore
+    private long b0, b1;
+    // Caso grande: bitset multi-parola per giocatore
+    private final long[][] words;
+
+    private final int[] height;
+    private int moves;
+    private int lastCol = -1, lastPlayer = -1;
+    private long hash;
+
+    public F4Board(int rows, int cols) {
+        if (rows < 1 || cols < 1) throw new IllegalArgumentException("Board vuota");
+        this.rows = rows;
+        this.cols = cols;
+        h = rows + 1;
+        small = (long) h * cols <= 64;
+        words = small ? null : new long[2][(h * cols + 63) >>> 6];
+        height = new int[cols];
+    }
+
+    /** Copia indipendente della posizione (la ricerca lavora su una copia). */
+    public F4Board copy() {
+        F4Board b = new F4Board(rows, cols);
+        b.b0 = b0;
+        b.b1 = b1;
+        if (!small) {
+            System.arraycopy(words[0], 0, b.words[0], 0, words[0].length);
+            System.arraycopy(words[1], 0, b.words[1], 0, words[1].length);
+        }
+        System.arraycopy(height, 0, b.height, 0, cols);
+        b.moves = moves;
+        b.lastCol = lastCol;
+        b.lastPlayer = lastPlayer;
+        b.hash = hash;
+        return b;
+    }
+
+    public void clear() {
+        b0 = b1 = 0;
+        if (!small) { java.util.Arrays.fill(words[0], 0); java.util.Arrays.fill(words[1], 0); }
+        java.util.Arrays.fill(height, 0);
+        moves = 0;
+        lastCol = lastPlayer = -1;
+        hash = 0;
+    }
+
+    public boolean canPlay(int c) { return c >= 0 && c < cols && height[c] < rows; }
+
+    public boolean isFull() { return moves == rows * cols; }
+
+    public int moves() { return moves; }
+
+    public int height(int c) { return height[c]; }
+
+    /**
+     * Hash Zobrist della posizione, aggiornato a ogni drop/undo. Le chiavi sono
+     * derivate in modo deterministico dalla cella, quindi lo stesso valore vale
+     * tra esecuzioni diverse (serve per salvare posizioni su file).
+     */
+    public long hash() { return hash; }
+
+    /**
+     * Fa cadere un gettone del giocatore (0 o 1) nella colonna c.
+     * Ritorna la riga occupata contando dall'alto, come nel protocollo (MOVED r c s).
+     */
+    public int drop(int c, int player) {
+        int k = height[c]++;
+        int bit = c * h + k;
+        if (small) {
+            if (player == 0) b0 |= 1L << bit; else b1 |= 1L << bit;
+        } else {
+            words[player][bit >>> 6] |= 1L << bit;
+        }
+        moves++;
+        hash ^= zobrist(player, bit);
+        lastCol = c;
+        lastPlayer = player;
+        return rows - 1 - k;
+    }
+
+    /** Toglie il gettone in cima alla colonna c (usato dalla ricerca). */
+    public void undo(int c) {
+        int k = --height[c];
+        int bit = c * h + k;
+        hash ^= zobrist(get(0, bit) ? 0 : 1, bit);
+        long m = ~(1L << bit);
+        if (small) { b0 &= m; b1 &= m; }
+        else { words[0][bit >>> 6] &= m; words[1][bit >>> 6] &= m; }
+        moves--;
+        lastCol = lastPlayer = -1;
+    }
+
+    /** True se l'ultima mossa giocata con drop() ha fatto quattro in fila. */
+    public boolean lastMoveWins() {
+        if (lastPlayer < 0) return false;
+        if (small) return hasFour(lastPlayer == 0 ? b0 : b1);
+        return hasFourAround(lastPlayer, lastCol, height[lastCol] - 1);
+    }
+
+    /** Contenuto della cella (riga dall'alto, colonna): -1 se vuota, altrimenti il giocatore. */
+    public int cell(int r, int c) {
+        int k = rows - 1 - r;
+        if (k >= height[c]) return -1;
+        return get(0, c * h + k) ? 0 : 1;
+    }
+
+    private static long zobrist(int player, int bit) {
+        // splitmix64 sull'indice (cella, giocatore): niente tabelle da allocare
+        long z = (bit * 2L + player + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private boolean hasFour(long b) {
+        // verticale, orizzontale, diagonale /, diagonale \
+        long m = b & (b >>> 1);
+        if ((m & (m >>> 2)) != 0) return true;
+        m = b & (b >>> h);
+        if ((m & (m >>> 2 * h)) != 0) return true;
+        m = b & (b >>> (h + 1));
+        if ((m & (m >>> 2 * (h + 1))) != 0) return true;
+        m = b & (b >>> (h - 1));
+        return (m & (m >>> 2 * (h - 1))) != 0;
+    }
+
+    private boolean hasFourAround(int p, int c, int k) {
+        return run(p, c, k, 0, 1) || run(p, c, k, 1, 0) || run(p, c, k, 1, 1) || run(p, c, k, 1, -1);
+    }
+
+    private boolean run(int p, int c, int k, int dc, int dk) {
+        int n = 1;
+        for (int i = 1; i < 4 && owns(p, c + i * dc, k + i * dk); i++) n++;
+        for (int i = 1; i < 4 && owns(p, c - i * dc, k - i * dk); i++) n++;
+        return n >= 4;
+    }
+
+    private boolean owns(int p, int c, int k) {
+        return c >= 0 && c < cols && k >= 0 && k < height[c] && get(p, c * h + k);
+    }
+
+    private boolean get(int p, int bit) {
+        if (small) return (((p == 0 ? b0 : b1) >>> bit) & 1) != 0;
+        return ((words[p][bit >>> 6] >>> bit) & 1) != 0;
+    }
+}
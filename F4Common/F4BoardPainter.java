@@ -0,0 +1,119 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Disegno della board condiviso da client e monitor del server.
+ *
+ * Lo sfondo (board blu con i buchi bianchi) e un gettone per giocatore
+ * (colore e simbolo) si disegnano una volta sola in immagini della dimensione
+ * corrente delle celle, e si rifanno solo quando cambiano dimensione, colori o
+ * simboli. paint() copia lo sfondo e poi i soli gettoni che cadono nel clip:
+ * dopo una mossa basta repaintCell per ridisegnare una cella invece della board.
+ *
+ * Le immagini sono alla risoluzione del dispositivo (scala della Graphics),
+ * cosi' sugli schermi HiDPI restano nitide.
+ */
+public class F4BoardPainter {
+    private static final int PAD = 5;
+    private static final Color BOARD = new Color(0, 50, 150);
+
+    private int rows, cols, cw, ch;
+    private double scale;
+    private BufferedImage background;
+    private final BufferedImage[] tokens = new BufferedImage[2];
+    private final Color[] colors = new Color[2];
+    private final char[] syms = new char[2];
+
+    /**
+     * Disegna la board nell'area w x h di g; il giocatore 0 ha colore c0 e
+     * simbolo s0, l'1 c1 e s1. Sono toccate solo le celle dentro il clip.
+     */
+    public void paint(Graphics g, F4Board board, int w, int h, Color c0, char s0, Color c1, char s1) {
+        int ncw = w / board.cols, nch = h / board.rows;
+        if (ncw <= 0 || nch <= 0) return;
+        double sc = ((Graphics2D) g).getTransform().getScaleX();
+        if (ncw != cw || nch != ch || board.rows != rows || board.cols != cols || sc != scale) {
+            rows = board.rows;
+            cols = board.cols;
+            cw = ncw;
+            ch = nch;
+            scale = sc;
+            background = null;
+            tokens[0] = tokens[1] = null;
+        }
+        if (background == null) background = renderBackground();
+        token(0, c0, s0);
+        token(1, c1, s1);
+
+        int bw = cols * cw, bh = rows * ch;
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, bw, bh);
+        int x0 = Math.max(0, clip.x), y0 = Math.max(0, clip.y);
+        int x1 = Math.min(bw, clip.x + clip.width), y1 = Math.min(bh, clip.y + clip.height);
+        if (x1 <= x0 || y1 <= y0) return;
+
+        // Il clip limita la copia dello sfondo alla zona sporca
+        g.drawImage(background, 0, 0, bw, bh, null);
+        int r0 = y0 / ch, r1 = (y1 - 1) / ch;
+        for (int c = x0 / cw, cEnd = (x1 - 1) / cw; c <= cEnd; c++) {
+            // Le celle occupate di una colonna sono le ultime height(c) dal basso
+            for (int r = Math.max(r0, rows - board.height(c)); r <= r1; r++) {
+                g.drawImage(tokens[board.cell(r, c)], c * cw, r * ch, cw, ch, null);
+            }
+        }
+    }
+
+    /** Chiede a comp di ridisegnare solo la cella (r, c), o tutto se non e' ancora mai stata disegnata. */
+    public void repaintCell(Component comp, int r, int c) {
+        if (cw == 0 || r < 0 || r >= rows || c < 0 || c >= cols) comp.repaint();
+        else comp.repaint(c * cw, r * ch, cw, ch);
+    }
+
+    private void token(int i, Color color, char sym) {
+        if (tokens[i] != null && colors[i].equals(color) && syms[i] == sym) return;
+        colors[i] = color;
+        syms[i] = sym;
+        BufferedImage img = image(cw, ch);
+        Graphics2D g = graphics(img);
+        g.setColor(BOARD);
+        g.fillRect(0, 0, cw, ch);
+        g.setColor(color);
+        g.fillOval(PAD, PAD, cw - PAD * 2, ch - PAD * 2);
+        if (sym != ' ') {
+            g.setColor(Color.BLACK);
+            g.setFont(new Font("SansSerif", Font.BOLD, Math.max(16, (int) (ch * 0.5))));
+            FontMetrics fm = g.getFontMetrics();
+            String s = String.valueOf(sym);
+            int tx = (cw - fm.stringWidth(s)) / 2;
+            int ty = (ch - fm.getHeight()) / 2 + fm.getAscent();
+            g.drawString(s, tx, ty);
+        }
+        g.dispose();
+        tokens[i] = img;
+    }
+
+    private BufferedImage renderBackground() {
+        BufferedImage img = image(cols * cw, rows * ch);
+        Graphics2D g = graphics(img);
+        g.setColor(BOARD);
+        g.fillRect(0, 0, cols * cw, rows * ch);
+        g.setColor(Color.WHITE);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) g.fillOval(c * cw + PAD, r * ch + PAD, cw - PAD * 2, ch - PAD * 2);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private BufferedImage image(int w, int h) {
+        return new BufferedImage(Math.max(1, (int) Math.ceil(w * scale)), Math.max(1, (int) Math.ceil(h * scale)), BufferedImage.TYPE_INT_RGB);
+    }
+
+    private Graphics2D graphics(BufferedImage img) {
+        Graphics2D g = img.createGraphics();
+        g.scale(scale, scale);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        return g;
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Libro delle aperture: le posizioni dei primi N mezzi-turni, gia' risolte,
+ * salvate in un file binario ordinato per hash (F4Board.hash()).
+ *
+ * Formato (big endian):
+ * <pre>
+ *   header  "F4BK" | versione int | righe int | colonne int | plies int | entry int
+ *   entry   hash long | punteggio int | mossa short | esatto byte | profondita' byte
+ * </pre>
+ * Il giocatore 0 muove per primo, quindi chi deve muovere si ricava dalla parita'
+ * delle mosse e basta l'hash come chiave. La lettura mappa il file in memoria e
+ * cerca per bisezione: niente viene copiato nello heap.
+ *
+ * Generazione: java F4Book &lt;file&gt; &lt;plies&gt; [ms per posizione] [righe colonne]
+ */
+public class F4Book implements Closeable {
+    private static final int MAGIC = 0x46344B42; // "F4BK"
+    private static final int VERSION = 1;
+    private static final int HEADER = 24;
+    private static final int ENTRY = 16;
+
+    public final int rows, cols, plies;
+    private final int count;
+    private final FileChannel ch;
+    private final MappedByteBuffer buf;
+
+    private F4Book(FileChannel ch) throws IOException {
+        this.ch = ch;
+        buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) throw new IOException("Libro aperture non valido");
+        rows = buf.getInt(8);
+        cols = buf.getInt(12);
+        plies = buf.getInt(16);
+        count = buf.getInt(20);
+        if (HEADER + (long) count * ENTRY > ch.size()) throw new IOException("Libro aperture troncato");
+    }
+
+    public static F4Book open(Path file) throws IOException {
+        return new F4Book(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    public int size() { return count; }
+
+    /** Mossa del libro per la posizione, o -1 se la posizione non c'e' (o la board ha un'altra misura). */
+    public int bestMove(F4Board b) {
+        int i = find(b);
+        return i < 0 ? -1 : buf.getShort(HEADER + i * ENTRY + 12);
+    }
+
+    /** Punteggio dal punto di vista di chi muove (vedi F4Solver.WIN); 0 se la posizione non c'e'. */
+    public int score(F4Board b) {
+        int i = find(b);
+        return i < 0 ? 0 : buf.getInt(HEADER + i * ENTRY + 8);
+    }
+
+    private int find(F4Board b) {
+        if (b.rows != rows || b.cols != cols || b.moves() > plies) return -1;
+        long key = b.hash();
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = buf.getLong(HEADER + mid * ENTRY);
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException { ch.close(); }
+
+    /**
+     * Risolve tutte le posizioni raggiungibili in al massimo plies mezzi-turni
+     * (escluse quelle gia' finite) e scrive il libro su file.
+     */
+    public static void generate(Path file, int rows, int cols, int plies, long millisPerPosition) throws IOException {
+        List<F4Board> positions = new ArrayList<>();
+        collect(new F4Board(rows, cols), 0, plies, new HashSet<>(), positions);
+        System.out.println("Posizioni da risolvere: " + positions.size());
+
+        long[] entries = new long[positions.size() * 2];
+        AtomicInteger done = new AtomicInteger();
+        ThreadLocal<F4Solver> solvers = ThreadLocal.withInitial(() -> new F4Solver(16));
+        int[] idx = new int[positions.size()];
+        for (int i = 0; i < idx.length; i++) idx[i] = i;
+        Arrays.stream(idx).parallel().forEach(i -> {
+            F4Board b = positions.get(i);
+            F4Solver.Result r = solvers.get().search(b, b.moves() & 1, millisPerPosition);
+            entries[2 * i] = b.hash();
+            entries[2 * i + 1] = ((long) r.score << 32) | ((r.move & 0xFFFFL) << 16) | ((r.exact ? 1L : 0L) << 8) | Math.min(r.depth, 255);
+            int n = done.incrementAndGet();
+            if (n % 1000 == 0) System.out.println(n + "/" + positions.size());
+        });
+
+        Integer[] order = new Integer[positions.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> entries[2 * i]));
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bb = ByteBuffer.allocate(HEADER + order.length * ENTRY);
+            bb.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).putInt(plies).putInt(order.length);
+            for (int i : order) {
+                long v = entries[2 * i + 1];
+                bb.putLong(entries[2 * i]);
+                bb.putInt((int) (v >> 32));
+                bb.putShort((short) (v >>> 16));
+                bb.put((byte) (v >>> 8));
+                bb.put((byte) v);
+            }
+            bb.flip();
+            while (bb.hasRemaining()) out.write(bb);
+        }
+    }
+
+    private static void collect(F4Board b, int player, int plies, Set<Long> seen, List<F4Board> out) {
+        if (!seen.add(b.hash())) return;
+        out.add(b.copy());
+        if (b.moves() == plies) return;
+        for (int c = 0; c < b.cols; c++) {
+            if (!b.canPlay(c)) continue;
+            b.drop(c, player);
+            boolean over = b.lastMoveWins() || b.isFull();
+            if (!over) collect(b, 1 - player, plies, seen, out);
+            b.undo(c);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Uso: java F4Book <file> <plies> [ms per posizione] [righe colonne]");
+            System.exit(1);
+        }
+        int plies = Integer.parseInt(args[1]);
+        long ms = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+        int rows = args.length > 4 ? Integer.parseInt(args[3]) : 6;
+        int cols = args.length > 4 ? Integer.parseInt(args[4]) : 7;
+        long t0 = System.nanoTime();
+        generate(Paths.get(args[0]), rows, cols, plies, ms);
+        System.out.println("Libro scritto in " + (System.nanoTime() - t0) / 1_000_000_000 + " s");
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Istogramma log-lineare di latenze in microsecondi, condiviso da server
+ * (metriche) e generatore di carico: i valori sotto SUB sono esatti, sopra
+ * ogni potenza di 2 e' divisa in SUB bucket, quindi l'errore sui percentili
+ * resta sotto 1/SUB (6%). Memoria fissa, un incremento atomico per valore:
+ * si registra da piu' thread senza lock.
+ */
+public final class F4Histogram {
+    private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB);
+    private final LongAdder sum = new LongAdder();
+
+    public void recordNanos(long nanos) {
+        long us = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(us));
+        sum.add(us);
+    }
+
+    /** Somma dei valori registrati, in microsecondi. */
+    public long sumMicros() { return sum.sum(); }
+
+    /**
+     * Conteggio (in posizione 0) e percentili richiesti in microsecondi, da
+     * un'unica lettura dei bucket. Un percentile e' il limite superiore del suo
+     * bucket; 0 se l'istogramma e' vuoto.
+     */
+    public long[] snapshot(double... quantiles) {
+        int n = counts.length();
+        long[] c = new long[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) total += c[i] = counts.get(i);
+        long[] out = new long[quantiles.length + 1];
+        out[0] = total;
+        for (int q = 0; q < quantiles.length && total > 0; q++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total)), seen = 0;
+            for (int i = 0; i < n; i++) {
+                seen += c[i];
+                if (seen >= rank) { out[q + 1] = upper(i); break; }
+            }
+        }
+        return out;
+    }
+
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    /** Il valore piu' alto che finisce nel bucket i. */
+    private static long upper(int i) {
+        if (i < SUB) return i;
+        int shift = i / SUB - 1;
+        return ((long) (SUB + i % SUB) << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocollo binario opzionale, negoziato dopo il nome:
+ * <pre>
+ *   client -> server   nome                 (testo, come sempre)
+ *   server -> client   PROTO 1              (offerta; i client vecchi la ignorano)
+ *   client -> server   PROTO 1              (accetta: da qui il client scrive in binario)
+ *   server -> client   PROTO_OK             (da qui anche il server scrive in binario)
+ * </pre>
+ * Chi non conosce l'offerta non risponde e si resta sul testo.
+ *
+ * Ogni frame binario e': lunghezza (varint) | opcode (1 byte) | campi. Gli interi
+ * e i simboli sono varint, le stringhe lunghezza varint + UTF-8. La lunghezza in
+ * testa permette di saltare i campi o gli opcode che una versione non conosce.
+ * Qualsiasi riga del protocollo testuale senza un opcode dedicato viaggia in un
+ * frame TEXT.
+ *
+ * Ripresa dopo una caduta della connessione, con un solo giro:
+ * <pre>
+ *   server -> client   RESUME_TOKEN t       (dopo START: il posto del giocatore)
+ *   client -> server   RESUME t n nome      (al posto del nome; n = MOVED gia' ricevuti)
+ *   server -> client   RESUMED id           poi i MOVED dal numero n in avanti e il turno,
+ *                                           o l'esito se la partita e' finita nel frattempo
+ *                      RESUME_FAILED        posto scaduto o sconosciuto
+ * </pre>
+ * Con un token non piu' valido il server prova la ripresa dal journal per
+ * nome, che ricomincia da CONFIG.
+ * All'avversario arrivano OPPONENT_AWAY e OPPONENT_BACK.
+ */
+public final class F4Proto {
+    public static final int VERSION = 1;
+    public static final String OFFER = "PROTO " + VERSION;
+    public static final String ACCEPT = "PROTO " + VERSION;
+    public static final String OK = "PROTO_OK";
+    public static final String RESUME = "RESUME", RESUME_TOKEN = "RESUME_TOKEN", RESUMED = "RESUMED",
+            RESUME_FAILED = "RESUME_FAILED", OPPONENT_AWAY = "OPPONENT_AWAY", OPPONENT_BACK = "OPPONENT_BACK";
+
+    public static final int CONFIG = 1, START = 2, YOUR_TURN = 3, WAIT_TURN = 4, MOVED = 5,
+            WIN = 6, DRAW = 7, EXIT_OPPONENT_LEFT = 8, MOVE = 9, TIMEOUT = 10, TEXT = 0x7F;
+
+    /** Frame piu' lungo accettato in lettura. */
+    public static final int MAX_FRAME = 64 * 1024;
+
+    private F4Proto() {}
+
+    /** Frame decodificato; riusabile, i campi valgono fino alla decodifica successiva. */
+    public static final class Frame {
+        public int op;
+        public int a, b;
+        public char sym;
+        public boolean red;
+        public String text;
+    }
+
+    // --- scrittura (il chiamante garantisce lo spazio nel buffer) ---
+
+    public static void putConfig(ByteBuffer out, int rows, int cols, char sym, boolean red) {
+        putVarint(out, 1 + varintSize(rows) + varintSize(cols) + varintSize(sym) + 1);
+        out.put((byte) CONFIG);
+        putVarint(out, rows);
+        putVarint(out, cols);
+        putVarint(out, sym);
+        out.put((byte) (red ? 1 : 0));
+    }
+
+    public static void putStart(ByteBuffer out, String name, char sym) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, 1 + varintSize(n.length) + n.length + varintSize(sym));
+        out.put((byte) START);
+        putVarint(out, n.length);
+        out.put(n);
+        putVarint(out, sym);
+    }
+
+    public static void putMoved(ByteBuffer out, int row, int col, char sym) {
+        putVarint(out, 1 + varintSize(row) + varintSize(col) + varintSize(sym));
+        out.put((byte) MOVED);
+        putVarint(out, row);
+        putVarint(out, col);
+        putVarint(out, sym);
+    }
+
+    public static void putMove(ByteBuffer out, int col) {
+        putVarint(out, 1 + varintSize(col));
+        out.put((byte) MOVE);
+        putVarint(out, col);
+    }
+
+    /** Frame senza campi: YOUR_TURN, WAIT_TURN, DRAW, EXIT_OPPONENT_LEFT. */
+    public static void putOp(ByteBuffer out, int op) {
+        out.put((byte) 1);
+        out.put((byte) op);
+    }
+
+    /** WIN o TEXT: un opcode seguito da una stringa. */
+    public static void putString(ByteBuffer out, int op, String s) {
+        byte[] t = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, 1 + varintSize(t.length) + t.length);
+        out.put((byte) op);
+        putVarint(out, t.length);
+        out.put(t);
+    }
+
+    /** Spazio massimo occupato da un frame che contiene una stringa di len caratteri. */
+    public static int maxSize(int len) { return 16 + 3 * len; }
+
+    public static void putVarint(ByteBuffer out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    public static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) { n++; v >>>= 7; }
+        return n;
+    }
+
+    // --- lettura ---
+
+    /**
+     * Decodifica un frame dal buffer (in modalita' lettura). Se il frame non e'
+     * ancora arrivato per intero ritorna false e lascia la posizione invariata.
+     */
+    public static boolean decode(ByteBuffer in, Frame f) throws IOException {
+        int start = in.position();
+        int len;
+        try {
+            len = getVarint(in);
+        } catch (BufferUnderflowException e) {
+            in.position(start);
+            return false;
+        }
+        if (len < 1 || len > MAX_FRAME) throw new IOException("Frame non valido");
+        if (in.remaining() < len) {
+            in.position(start);
+            return false;
+        }
+        int end = in.position() + len;
+        int limit = in.limit();
+        in.limit(end);
+        try {
+            parse(in, f);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Frame troncato");
+        } finally {
+            in.limit(limit);
+            in.position(end);
+        }
+        return true;
+    }
+
+    /**
+     * Legge un frame da uno stream bloccante. scratch e' un buffer riusabile di
+     * almeno MAX_FRAME byte. Ritorna false a fine stream.
+     */
+    public static boolean read(InputStream in, ByteBuffer scratch, Frame f) throws IOException {
+        int len = 0, shift = 0, b;
+        do {
+            b = in.read();
+            if (b < 0) return false;
+            len |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        if (len < 1 || len > MAX_FRAME || len > scratch.capacity()) throw new IOException("Frame non valido");
+        int n = in.readNBytes(scratch.array(), 0, len);
+        if (n < len) return false;
+        scratch.clear().limit(len);
+        try {
+            parse(scratch, f);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Frame troncato");
+        }
+        return true;
+    }
+
+    private static void parse(ByteBuffer in, Frame f) {
+        f.op = in.get() & 0xFF;
+        f.text = null;
+        switch (f.op) {
+            case CONFIG:
+                f.a = getVarint(in);
+                f.b = getVarint(in);
+                f.sym = (char) getVarint(in);
+                f.red = in.get() != 0;
+                break;
+            case START:
+                f.text = getString(in);
+                f.sym = (char) getVarint(in);
+                break;
+            case MOVED:
+                f.a = getVarint(in);
+                f.b = getVarint(in);
+                f.sym = (char) getVarint(in);
+                break;
+            case MOVE:
+                f.a = getVarint(in);
+                break;
+            case WIN:
+            case TIMEOUT:
+            case TEXT:
+                f.text = getString(in);
+                break;
+            default:
+                // opcode senza campi, o sconosciuto: il resto del frame viene saltato
+        }
+    }
+
+    private static int getVarint(ByteBuffer in) {
+        int v = 0, shift = 0, b;
+        do {
+            b = in.get();
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return v;
+    }
+
+    private static String getString(ByteBuffer in) {
+        int n = getVarint(in);
+        if (n > in.remaining()) throw new BufferUnderflowException();
+        String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+        in.position(in.position() + n);
+        return s;
+    }
+
+    /**
+     * Legge una riga di testo da uno stream bloccante senza BufferedReader, cosi'
+     * dopo la negoziazione lo stesso stream puo' passare ai frame binari senza
+     * perdere byte gia' letti in anticipo. null a fine stream.
+     */
+    public static String readLine(InputStream in, ByteBuffer scratch) throws IOException {
+        int n = readLineBytes(in, scratch);
+        return n < 0 ? null : new String(scratch.array(), 0, n, StandardCharsets.UTF_8);
+    }
+
+    /** Come readLine, ma lascia la riga in scratch.array() e ne ritorna la lunghezza (-1 a fine stream). */
+    public static int readLineBytes(InputStream in, ByteBuffer scratch) throws IOException {
+        scratch.clear();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (scratch.position() == 0) return -1;
+                break;
+            }
+            if (!scratch.hasRemaining()) throw new IOException("Riga troppo lunga");
+            scratch.put((byte) b);
+        }
+        int n = scratch.position();
+        if (n > 0 && scratch.get(n - 1) == '\r') n--;
+        return n;
+    }
+}
@@ -0,0 +1,95 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tempo per frame del disegno della board, su un'immagine fuori schermo (non
+ * serve un display). Per ogni dimensione confronta il vecchio disegno completo
+ * (ogni cella, un Font nuovo e la misura del testo per ogni gettone), il
+ * disegno completo con F4BoardPainter e il ridisegno della sola cella sporca
+ * dopo una mossa, che e' il caso normale durante una partita.
+ *
+ * Uso: java F4RenderBench [larghezza altezza]   (default: 1000 1000)
+ */
+public class F4RenderBench {
+    private static final int[][] SIZES = {{6, 7}, {20, 20}, {50, 50}};
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int w = args.length > 1 ? Integer.parseInt(args[0]) : 1000;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+
+        System.out.printf(Locale.ROOT, "%dx%d px, board riempite a meta'%n", w, h);
+        System.out.printf(Locale.ROOT, "%9s %14s %14s %14s %9s%n", "board", "prima ms", "cache ms", "cella ms", "speedup");
+        for (int[] size : SIZES) {
+            F4Board b = new F4Board(size[0], size[1]);
+            Random rnd = new Random(1);
+            while (b.moves() < size[0] * size[1] / 2) {
+                int c = rnd.nextInt(size[1]);
+                if (b.canPlay(c)) b.drop(c, b.moves() & 1);
+            }
+            F4BoardPainter painter = new F4BoardPainter();
+            int cw = w / size[1], ch = h / size[0];
+            int free = 0;
+            while (!b.canPlay(free)) free++;
+            int col = free, row = size[0] - 1 - b.height(col);
+
+            double before = time(() -> oldDraw(img.createGraphics(), b, w, h));
+            double full = time(() -> {
+                Graphics2D g = img.createGraphics();
+                painter.paint(g, b, w, h, Color.RED, 'X', Color.YELLOW, 'O');
+                g.dispose();
+            });
+            // Come fa Swing dopo repaint(cella): clip sulla cella, sfondo del pannello, poi paint
+            double cell = time(() -> {
+                Graphics2D g = img.createGraphics();
+                g.clipRect(col * cw, row * ch, cw, ch);
+                g.setColor(Color.DARK_GRAY);
+                g.fillRect(col * cw, row * ch, cw, ch);
+                painter.paint(g, b, w, h, Color.RED, 'X', Color.YELLOW, 'O');
+                g.dispose();
+            });
+            System.out.printf(Locale.ROOT, "%4dx%-4d %14.3f %14.3f %14.4f %8.0fx%n",
+                    size[0], size[1], before, full, cell, before / cell);
+        }
+    }
+
+    /** Millisecondi medi per frame, dopo il riscaldamento. */
+    private static double time(Runnable frame) {
+        for (int i = 0; i < 50; i++) frame.run();
+        int n = 0;
+        long t0 = System.nanoTime(), t;
+        do {
+            frame.run();
+            n++;
+            t = System.nanoTime();
+        } while (t - t0 < 1_000_000_000L);
+        return (t - t0) / 1e6 / n;
+    }
+
+    /** Il disegno di prima, per confronto. */
+    private static void oldDraw(Graphics2D g, F4Board board, int w, int h) {
+        int rows = board.rows, cols = board.cols;
+        int cw = w / cols, ch = h / rows;
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(0, 50, 150));
+        g.fillRect(0, 0, cols * cw, rows * ch);
+        for (int r = 0; r < rows; r++) for (int c = 0; c < cols; c++) {
+            int who = board.cell(r, c);
+            char s = who < 0 ? ' ' : who == 0 ? 'X' : 'O';
+            g.setColor(who < 0 ? Color.WHITE : who == 0 ? Color.RED : Color.YELLOW);
+            int p = 5;
+            g.fillOval(c * cw + p, r * ch + p, cw - p * 2, ch - p * 2);
+            if (s != ' ') {
+                g.setColor(Color.BLACK);
+                g.setFont(new Font("SansSerif", Font.BOLD, Math.max(16, (int) (ch * 0.5))));
+                FontMetrics fm = g.getFontMetrics();
+                java.awt.geom.Rectangle2D bounds = fm.getStringBounds(String.valueOf(s), g);
+                g.drawString("" + s, c * cw + (cw - (int) bounds.getWidth()) / 2, r * ch + (ch - (int) bounds.getHeight()) / 2 + fm.getAscent());
+            }
+        }
+        g.dispose();
+    }
+}
@@ -0,0 +1,342 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Motore di ricerca per la CPU: negamax con potatura alfa-beta, mosse ordinate
+ * dal centro verso i bordi, approfondimento iterativo entro un tempo massimo e
+ * tabella delle trasposizioni (hash Zobrist di F4Board) a memoria fissa.
+ *
+ * Funziona su qualsiasi dimensione ammessa da F4Board. Sulla 6x7 le posizioni
+ * vicine alla fine vengono risolte esattamente; nelle altre, quando il tempo
+ * finisce, le foglie sono valutate contando le quaterne ancora aperte.
+ *
+ * Con piu' thread la ricerca e' Lazy SMP: ogni thread esplora la stessa radice
+ * con un ordine delle mosse leggermente diverso e i risultati si condividono
+ * attraverso la tabella delle trasposizioni. Un'istanza esegue una ricerca alla
+ * volta (search e' synchronized).
+ */
+public class F4Solver {
+    /** Punteggio di una vittoria alla prima mossa; le vittorie piu' lontane valgono meno. */
+    public static final int WIN = 1_000_000;
+    private static final int INF = WIN + 1;
+
+    private static final int EXACT = 0, LOWER = 1, UPPER = 2;
+    private static final long SIDE = 0x5DEECE66DL * 0x9E3779B97F4A7C15L;
+    private static final int[] WEIGHT = {0, 1, 4, 16, 64};
+
+    // Tabella delle trasposizioni condivisa tra i thread e senza lock: in keys si salva
+    // chiave ^ dati, cosi' una scrittura concorrente "strappata" non passa il controllo
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+    private volatile int age;
+
+    private final Searcher[] searchers;
+    private final ExecutorService helpers;
+    private volatile boolean stop;
+    private volatile long deadline;
+
+    public static final class Result {
+        public final int move, score, depth;
+        public final long nodes;
+        /** True se il punteggio e' un risultato dimostrato e non una stima. */
+        public final boolean exact;
+
+        Result(int move, int score, int depth, long nodes, boolean exact) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.exact = exact;
+        }
+    }
+
+    /** @param ttMegabytes memoria massima della tabella delle trasposizioni */
+    public F4Solver(int ttMegabytes) {
+        this(ttMegabytes, 1);
+    }
+
+    /**
+     * @param ttMegabytes memoria massima della tabella delle trasposizioni
+     * @param threads     thread di ricerca; oltre al chiamante ne vengono creati threads-1
+     */
+    public F4Solver(int ttMegabytes, int threads) {
+        long entries = Long.highestOneBit(Math.max(1024L, ttMegabytes * 1024L * 1024L / 16));
+        entries = Math.min(entries, 1 << 30);
+        keys = new long[(int) entries];
+        data = new long[(int) entries];
+        mask = (int) entries - 1;
+
+        searchers = new Searcher[Math.max(1, threads)];
+        for (int i = 0; i < searchers.length; i++) searchers[i] = new Searcher(i);
+        helpers = searchers.length == 1 ? null : Executors.newFixedThreadPool(searchers.length - 1, r -> {
+            Thread t = new Thread(r, "f4-search");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int threads() { return searchers.length; }
+
+    /** Svuota la tabella delle trasposizioni: le ricerche successive ripartono come su un'istanza nuova. */
+    public synchronized void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        age = 0;
+    }
+
+    /**
+     * Cerca la mossa migliore per il giocatore (0 o 1) che deve muovere.
+     * La board passata non viene modificata.
+     */
+    public Result search(F4Board board, int player, long millis) {
+        return search(board, player, millis, Integer.MAX_VALUE);
+    }
+
+    /** Come search, ma si ferma anche raggiunta la profondita' maxDepth. */
+    public synchronized Result search(F4Board board, int player, long millis, int maxDepth) {
+        age = (age + 1) & 0xFF;
+        stop = false;
+        deadline = System.nanoTime() + millis * 1_000_000L;
+
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 1; i < searchers.length; i++) {
+            Searcher h = searchers[i];
+            h.prepare(board);
+            running.add(helpers.submit(() -> h.iterate(player, maxDepth)));
+        }
+        Searcher main = searchers[0];
+        main.prepare(board);
+        Result r = main.iterate(player, maxDepth);
+
+        // La risposta e' sempre quella del thread principale; gli altri servono a riempire la tabella
+        stop = true;
+        for (Future<?> f : running) {
+            try { f.get(); } catch (InterruptedException | ExecutionException e) { /* l'helper ha solo smesso di aiutare */ }
+        }
+        long nodes = 0;
+        for (Searcher s : searchers) nodes += s.nodes;
+        return new Result(r.move, r.score, r.depth, nodes, r.exact);
+    }
+
+    private int probeMove(long key) {
+        int idx = (int) key & mask;
+        long d = data[idx];
+        if ((keys[idx] ^ d) != key) return -1;
+        int m = (int) (d >>> 42) & 0xFFF;
+        return m == 0xFFF ? -1 : m;
+    }
+
+    /**
+     * Sostituzione: si tiene l'entry piu' profonda, a meno che la vecchia non venga
+     * da una ricerca precedente (age diversa) o riguardi la stessa posizione.
+     */
+    private void store(long key, int depth, int score, int flag, int move, int ply) {
+        int idx = (int) key & mask;
+        long old = data[idx];
+        int oldDepth = (int) (old >>> 32) & 0xFF;
+        int oldAge = (int) (old >>> 54) & 0xFF;
+        if ((keys[idx] ^ old) != key && oldAge == age && oldDepth > depth) return;
+        long d = (toTT(score, ply) & 0xFFFFFFFFL)
+                | ((long) Math.min(depth, 255) << 32)
+                | ((long) flag << 40)
+                | ((long) (move < 0 ? 0xFFF : move) << 42)
+                | ((long) age << 54);
+        data[idx] = d;
+        keys[idx] = key ^ d;
+    }
+
+    // I punteggi di vittoria dipendono dalla distanza dalla radice: in tabella si salvano relativi al nodo
+    private static int toTT(int s, int ply) {
+        if (s > WIN / 2) return s + ply;
+        if (s < -WIN / 2) return s - ply;
+        return s;
+    }
+
+    private static int fromTT(int s, int ply) {
+        if (s > WIN / 2) return s - ply;
+        if (s < -WIN / 2) return s + ply;
+        return s;
+    }
+
+    /** Stato di ricerca di un singolo thread: board, valutazione e contatori sono privati. */
+    private final class Searcher {
+        private final int id;
+        private F4Board b;
+        private int[] order;
+        private int[] rootOrder;
+        private long nodes;
+
+        // Valutazione incrementale: per ogni quaterna possibile quanti gettoni ha ciascun giocatore
+        private int[][] cellWindows;
+        private int[] count0, count1;
+        private int eval;
+        private int preparedRows;
+
+        Searcher(int id) { this.id = id; }
+
+        Result iterate(int player, int maxDepth) {
+            nodes = 0;
+            int empties = b.rows * b.cols - b.moves();
+            int bestMove = -1, bestScore = 0, bestDepth = 0;
+            for (int c : order) if (b.canPlay(c)) { bestMove = c; break; }
+
+            // Gli helper dispari partono un livello piu' avanti per non ripetere lo stesso lavoro
+            for (int depth = 1 + (id & 1); depth <= Math.min(empties, maxDepth); depth++) {
+                int alpha = -INF, move = -1, score = -INF;
+                int ttMove = probeMove(key(player));
+                for (int i = -1; i < rootOrder.length; i++) {
+                    int c = i < 0 ? ttMove : rootOrder[i];
+                    if (c < 0 || (i >= 0 && c == ttMove) || !b.canPlay(c)) continue;
+                    play(c, player);
+                    int v = b.lastMoveWins() ? WIN - 1 : -negamax(1 - player, depth - 1, -INF, -alpha, 1);
+                    unplay(c, player);
+                    if (stop) break;
+                    if (v > score) { score = v; move = c; }
+                    if (v > alpha) alpha = v;
+                }
+                if (stop) break;
+                bestMove = move;
+                bestScore = score;
+                bestDepth = depth;
+                store(key(player), depth, score, EXACT, move, 0);
+                if (decided(score)) break;
+            }
+            boolean exact = bestDepth == empties || decided(bestScore);
+            return new Result(bestMove, bestScore, bestDepth, nodes, exact);
+        }
+
+        private int negamax(int player, int depth, int alpha, int beta, int ply) {
+            if ((++nodes & 1023) == 0 && System.nanoTime() > deadline) stop = true;
+            if (stop) return 0;
+            if (b.isFull()) return 0;
+
+            // Vittoria immediata: inutile cercare oltre
+            for (int c : order) {
+                if (!b.canPlay(c)) continue;
+                b.drop(c, player);
+                boolean win = b.lastMoveWins();
+                b.undo(c);
+                if (win) return WIN - ply - 1;
+            }
+            if (depth == 0) return player == 0 ? eval : -eval;
+
+            long key = key(player);
+            int idx = (int) key & mask;
+            int ttMove = -1;
+            long d = data[idx];
+            if ((keys[idx] ^ d) == key) {
+                ttMove = (int) (d >>> 42) & 0xFFF;
+                if (ttMove == 0xFFF || ttMove >= b.cols) ttMove = -1;
+                int ttDepth = (int) (d >>> 32) & 0xFF;
+                if (ttDepth >= depth) {
+                    int s = fromTT((int) d, ply);
+                    int flag = (int) (d >>> 40) & 3;
+                    if (flag == EXACT) return s;
+                    if (flag == LOWER && s > alpha) alpha = s;
+                    else if (flag == UPPER && s < beta) beta = s;
+                    if (alpha >= beta) return s;
+                }
+            }
+
+            int alphaOrig = alpha;
+            int best = -INF, bestMove = -1;
+            for (int i = -1; i < order.length; i++) {
+                int c = i < 0 ? ttMove : order[i];
+                if (c < 0 || (i >= 0 && c == ttMove) || !b.canPlay(c)) continue;
+                play(c, player);
+                int v = -negamax(1 - player, depth - 1, -beta, -alpha, ply + 1);
+                unplay(c, player);
+                if (stop) return 0;
+                if (v > best) { best = v; bestMove = c; }
+                if (v > alpha) alpha = v;
+                if (alpha >= beta) break;
+            }
+
+            int flag = best <= alphaOrig ? UPPER : best >= beta ? LOWER : EXACT;
+            store(key, depth, best, flag, bestMove, ply);
+            return best;
+        }
+
+        private void play(int c, int player) {
+            update(c, b.height(c), player, 1);
+            b.drop(c, player);
+        }
+
+        private void unplay(int c, int player) {
+            b.undo(c);
+            update(c, b.height(c), player, -1);
+        }
+
+        /**
+         * Aggiorna la valutazione (dal punto di vista del giocatore 0) toccando solo le
+         * quaterne che passano per la cella: la differenza tra le quaterne aperte dei due
+         * giocatori, pesate per numero di gettoni, costa O(1) per mossa anche su board grandi.
+         */
+        private void update(int c, int k, int player, int delta) {
+            for (int w : cellWindows[c * b.rows + k]) {
+                eval -= contribution(w);
+                if (player == 0) count0[w] += delta; else count1[w] += delta;
+                eval += contribution(w);
+            }
+        }
+
+        private int contribution(int w) {
+            if (count1[w] == 0) return WEIGHT[count0[w]];
+            if (count0[w] == 0) return -WEIGHT[count1[w]];
+            return 0;
+        }
+
+        private boolean decided(int score) { return Math.abs(score) >= WIN - b.rows * b.cols - 1; }
+
+        private long key(int player) { return player == 0 ? b.hash() : b.hash() ^ SIDE; }
+
+        void prepare(F4Board board) {
+            b = board.copy();
+            int rows = b.rows, cols = b.cols;
+            if (order == null || order.length != cols || preparedRows != rows) {
+                // Dal centro verso i bordi: 3,2,4,1,5,0,6 con 7 colonne
+                order = new int[cols];
+                int center = (cols - 1) / 2;
+                for (int i = 0; i < cols; i++) {
+                    int off = (i + 1) / 2;
+                    order[i] = (i % 2 == 1) == (cols % 2 == 1) ? center - off : center + off;
+                }
+                // Ogni helper ruota l'ordine alla radice, cosi' i thread divergono presto
+                rootOrder = new int[cols];
+                for (int i = 0; i < cols; i++) rootOrder[i] = order[(i + id) % cols];
+
+                List<List<Integer>> byCell = new ArrayList<>();
+                for (int i = 0; i < rows * cols; i++) byCell.add(new ArrayList<>());
+                int n = 0;
+                int[][] dirs = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+                for (int c = 0; c < cols; c++)
+                    for (int k = 0; k < rows; k++)
+                        for (int[] d : dirs) {
+                            int ec = c + 3 * d[0], ek = k + 3 * d[1];
+                            if (ec >= cols || ek < 0 || ek >= rows) continue;
+                            for (int i = 0; i < 4; i++) byCell.get((c + i * d[0]) * rows + k + i * d[1]).add(n);
+                            n++;
+                        }
+                cellWindows = new int[rows * cols][];
+                for (int i = 0; i < cellWindows.length; i++)
+                    cellWindows[i] = byCell.get(i).stream().mapToInt(Integer::intValue).toArray();
+                count0 = new int[n];
+                count1 = new int[n];
+                preparedRows = rows;
+            }
+
+            Arrays.fill(count0, 0);
+            Arrays.fill(count1, 0);
+            eval = 0;
+            for (int c = 0; c < cols; c++)
+                for (int k = 0; k < b.height(c); k++)
+                    update(c, k, b.cell(rows - 1 - k, c), 1);
+        }
+    }
+}
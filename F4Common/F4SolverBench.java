@@ -0,0 +1,49 @@
+import java.util.Locale;
+
+/**
+ * Misura come scala la ricerca parallela: per ogni numero di thread stampa i nodi
+ * al secondo e il tempo per completare ciascuna profondita' su alcune posizioni
+ * della 6x7.
+ *
+ * Uso: java F4SolverBench [profondita'] [thread...]   (default: 14 1 2 4 8 16)
+ */
+public class F4SolverBench {
+    // Sequenze di colonne (1-based) che portano a posizioni di centro partita
+    private static final String[] POSITIONS = {"", "4455", "443322", "3344556"};
+
+    public static void main(String[] args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 14;
+        int[] threads = {1, 2, 4, 8, 16};
+        if (args.length > 1) {
+            threads = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) threads[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf(Locale.ROOT, "cpu=%d depth=%d%n", Runtime.getRuntime().availableProcessors(), maxDepth);
+        System.out.printf(Locale.ROOT, "%7s %12s %12s   %s%n", "threads", "nodes", "knodes/s", "ms per profondita' (1.." + maxDepth + ")");
+        for (int t : threads) {
+            F4Solver s = new F4Solver(64, t);
+            long nodes = 0, nanos = 0;
+            long[] toDepth = new long[maxDepth + 1];
+            for (String pos : POSITIONS) {
+                F4Board b = new F4Board(6, 7);
+                int player = 0;
+                for (char ch : pos.toCharArray()) { b.drop(ch - '1', player); player ^= 1; }
+
+                for (int d = 1; d <= maxDepth; d++) {
+                    // Tabella vuota a ogni misura: il tempo per profondita' parte sempre da zero
+                    s.clear();
+                    long t0 = System.nanoTime();
+                    F4Solver.Result r = s.search(b, player, Long.MAX_VALUE / 2_000_000L, d);
+                    long el = System.nanoTime() - t0;
+                    toDepth[d] += el;
+                    if (d == maxDepth) { nodes += r.nodes; nanos += el; }
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int d = 1; d <= maxDepth; d++) sb.append(toDepth[d] / 1_000_000).append(d < maxDepth ? " " : "");
+            System.out.printf(Locale.ROOT, "%7d %12d %12d   %s%n", t, nodes, nodes * 1_000_000 / Math.max(1, nanos), sb);
+        }
+        System.exit(0);
+    }
+}
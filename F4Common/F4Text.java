@@ -0,0 +1,217 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec del protocollo testuale che non alloca: le righe si leggono
+ * direttamente dal buffer di ricezione nei campi di un F4Proto.Frame
+ * riusabile e si scrivono carattere per carattere nel buffer di uscita.
+ * Fanno eccezione solo i nomi (START, WIN, TIMEOUT), che diventano String una volta
+ * per partita.
+ */
+public final class F4Text {
+    private static final byte[][] NAMES = new byte[F4Proto.TEXT + 1][];
+    static {
+        NAMES[F4Proto.CONFIG] = ascii("CONFIG");
+        NAMES[F4Proto.START] = ascii("START");
+        NAMES[F4Proto.YOUR_TURN] = ascii("YOUR_TURN");
+        NAMES[F4Proto.WAIT_TURN] = ascii("WAIT_TURN");
+        NAMES[F4Proto.MOVED] = ascii("MOVED");
+        NAMES[F4Proto.WIN] = ascii("WIN");
+        NAMES[F4Proto.DRAW] = ascii("DRAW");
+        NAMES[F4Proto.EXIT_OPPONENT_LEFT] = ascii("EXIT_OPPONENT_LEFT");
+        NAMES[F4Proto.MOVE] = ascii("MOVE");
+        NAMES[F4Proto.TIMEOUT] = ascii("TIMEOUT");
+    }
+    private static final byte[] RED = ascii(" RED\n"), YELLOW = ascii(" YELLOW\n");
+
+    private F4Text() {}
+
+    private static byte[] ascii(String s) { return s.getBytes(StandardCharsets.US_ASCII); }
+
+    // --- scrittura (il chiamante garantisce lo spazio nel buffer, vedi maxSize) ---
+
+    /** Spazio massimo occupato da una riga con una stringa di len caratteri. */
+    public static int maxSize(int len) { return 48 + 3 * len; }
+
+    public static void putConfig(ByteBuffer out, int rows, int cols, char sym, boolean red) {
+        out.put(NAMES[F4Proto.CONFIG]).put((byte) ' ');
+        putInt(out, rows);
+        out.put((byte) ' ');
+        putInt(out, cols);
+        out.put((byte) ' ');
+        putChars(out, sym);
+        out.put(red ? RED : YELLOW);
+    }
+
+    public static void putStart(ByteBuffer out, String name, char sym) {
+        out.put(NAMES[F4Proto.START]).put((byte) ' ');
+        putChars(out, name);
+        out.put((byte) ' ');
+        putChars(out, sym);
+        out.put((byte) '\n');
+    }
+
+    public static void putMoved(ByteBuffer out, int row, int col, char sym) {
+        out.put(NAMES[F4Proto.MOVED]).put((byte) ' ');
+        putInt(out, row);
+        out.put((byte) ' ');
+        putInt(out, col);
+        out.put((byte) ' ');
+        putChars(out, sym);
+        out.put((byte) '\n');
+    }
+
+    public static void putMove(ByteBuffer out, int col) {
+        out.put(NAMES[F4Proto.MOVE]).put((byte) ' ');
+        putInt(out, col);
+        out.put((byte) '\n');
+    }
+
+    public static void putWin(ByteBuffer out, String name) {
+        out.put(NAMES[F4Proto.WIN]).put((byte) ' ');
+        putChars(out, name);
+        out.put((byte) '\n');
+    }
+
+    public static void putTimeout(ByteBuffer out, String name) {
+        out.put(NAMES[F4Proto.TIMEOUT]).put((byte) ' ');
+        putChars(out, name);
+        out.put((byte) '\n');
+    }
+
+    /** Righe senza argomenti: YOUR_TURN, WAIT_TURN, DRAW, EXIT_OPPONENT_LEFT. */
+    public static void putOp(ByteBuffer out, int op) {
+        out.put(NAMES[op]).put((byte) '\n');
+    }
+
+    /** Una riga qualsiasi, gia' formata. */
+    public static void putLine(ByteBuffer out, CharSequence s) {
+        putChars(out, s);
+        out.put((byte) '\n');
+    }
+
+    public static void putInt(ByteBuffer out, int v) {
+        if (v < 0) { out.put((byte) '-'); v = -v; }
+        int div = 1;
+        while (div <= v / 10) div *= 10;
+        for (; div > 0; div /= 10) out.put((byte) ('0' + v / div % 10));
+    }
+
+    /** UTF-8 senza passare da getBytes. */
+    public static void putChars(ByteBuffer out, CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                putCodePoint(out, Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                putCodePoint(out, Character.isSurrogate(c) ? '?' : c);
+            }
+        }
+    }
+
+    public static void putChars(ByteBuffer out, char c) {
+        putCodePoint(out, Character.isSurrogate(c) ? '?' : c);
+    }
+
+    private static void putCodePoint(ByteBuffer out, int cp) {
+        if (cp < 0x80) {
+            out.put((byte) cp);
+        } else if (cp < 0x800) {
+            out.put((byte) (0xC0 | cp >> 6)).put((byte) (0x80 | cp & 0x3F));
+        } else if (cp < 0x10000) {
+            out.put((byte) (0xE0 | cp >> 12)).put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+        } else {
+            out.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+               .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+        }
+    }
+
+    // --- lettura ---
+
+    /**
+     * Riconosce una riga del protocollo (senza '\n') e ne mette i campi in f.
+     * Ritorna false se la riga non e' un comando noto o e' malformata: il
+     * chiamante la tratta allora come testo libero.
+     */
+    public static boolean parse(byte[] a, int off, int len, F4Proto.Frame f) {
+        int end = off + len;
+        int op = command(a, off, end);
+        if (op < 0) return false;
+        int p = off + NAMES[op].length;
+        f.op = op;
+        f.text = null;
+        switch (op) {
+            case F4Proto.MOVE:
+                if ((p = skipSpace(a, p, end)) < 0 || (p = number(a, p, end, f)) < 0) return false;
+                return p == end;
+            case F4Proto.MOVED: {
+                if ((p = skipSpace(a, p, end)) < 0 || (p = number(a, p, end, f)) < 0) return false;
+                int row = f.a;
+                if ((p = skipSpace(a, p, end)) < 0 || (p = number(a, p, end, f)) < 0) return false;
+                f.b = f.a;
+                f.a = row;
+                if ((p = skipSpace(a, p, end)) < 0) return false;
+                return (p = symbol(a, p, end, f)) == end;
+            }
+            case F4Proto.CONFIG: {
+                if ((p = skipSpace(a, p, end)) < 0 || (p = number(a, p, end, f)) < 0) return false;
+                int rows = f.a;
+                if ((p = skipSpace(a, p, end)) < 0 || (p = number(a, p, end, f)) < 0) return false;
+                f.b = f.a;
+                f.a = rows;
+                if ((p = skipSpace(a, p, end)) < 0 || (p = symbol(a, p, end, f)) < 0) return false;
+                if ((p = skipSpace(a, p, end)) < 0) return false;
+                f.red = end - p == 3 && a[p] == 'R' && a[p + 1] == 'E' && a[p + 2] == 'D';
+                return true;
+            }
+            case F4Proto.START: {
+                // Il nome puo' contenere spazi: il simbolo e' l'ultimo campo
+                int sp = end - 1;
+                while (sp > p && a[sp] != ' ') sp--;
+                if (sp <= p || symbol(a, sp + 1, end, f) != end) return false;
+                f.text = new String(a, p + 1, sp - p - 1, StandardCharsets.UTF_8);
+                return true;
+            }
+            case F4Proto.WIN:
+            case F4Proto.TIMEOUT:
+                if (p == end || a[p] != ' ') return false;
+                f.text = new String(a, p + 1, end - p - 1, StandardCharsets.UTF_8);
+                return true;
+            default:
+                return p == end;
+        }
+    }
+
+    private static int command(byte[] a, int off, int end) {
+        for (int op = 0; op < NAMES.length; op++) {
+            byte[] n = NAMES[op];
+            if (n == null || end - off < n.length) continue;
+            int i = 0;
+            while (i < n.length && a[off + i] == n[i]) i++;
+            if (i == n.length && (off + i == end || a[off + i] == ' ')) return op;
+        }
+        return -1;
+    }
+
+    private static int skipSpace(byte[] a, int p, int end) {
+        return p < end && a[p] == ' ' ? p + 1 : -1;
+    }
+
+    private static int number(byte[] a, int p, int end, F4Proto.Frame f) {
+        int v = 0, start = p;
+        while (p < end && a[p] >= '0' && a[p] <= '9' && p - start < 9) v = v * 10 + (a[p++] - '0');
+        if (p == start) return -1;
+        f.a = v;
+        return p;
+    }
+
+    /** Un carattere UTF-8 (fino a 3 byte) in f.sym. */
+    private static int symbol(byte[] a, int p, int end, F4Proto.Frame f) {
+        if (p >= end) return -1;
+        int b = a[p] & 0xFF;
+        if (b < 0x80) { f.sym = (char) b; return p + 1; }
+        if ((b & 0xE0) == 0xC0 && p + 1 < end) { f.sym = (char) ((b & 0x1F) << 6 | a[p + 1] & 0x3F); return p + 2; }
+        if ((b & 0xF0) == 0xE0 && p + 2 < end) { f.sym = (char) ((b & 0x0F) << 12 | (a[p + 1] & 0x3F) << 6 | a[p + 2] & 0x3F); return p + 3; }
+        return -1;
+    }
+}
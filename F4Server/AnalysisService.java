@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Servizio di analisi: valuta posizioni arbitrarie con F4Solver.
+ *
+ * Richiesta:  ANALYZE &lt;id&gt; &lt;righe&gt; &lt;colonne&gt; &lt;mosse&gt;
+ *             (mosse = colonne 0-based separate da virgole, "-" per la board vuota;
+ *              muove per primo il giocatore 0)
+ * Risposta:   ANALYSIS &lt;id&gt; &lt;punteggio&gt; &lt;colonna&gt;
+ *             ANALYSIS_ERROR &lt;id&gt; &lt;motivo&gt;
+ *             ANALYSIS_BUSY &lt;id&gt;   (coda piena, riprovare)
+ *
+ * Il punteggio e' dal punto di vista di chi muove (vedi F4Solver.WIN). Le
+ * richieste si possono mandare in pipeline sulla stessa connessione: le risposte
+ * arrivano appena pronte, anche fuori ordine, e si riconoscono dall'id.
+ */
+class AnalysisService {
+    private static final int MAX_CELLS = 4096;
+
+    private final ThreadPoolExecutor pool;
+    private final long millis;
+    private final ThreadLocal<F4Solver> solvers = ThreadLocal.withInitial(() -> new F4Solver(16));
+
+    // Cache dei risultati condivisa e senza lock, con lo stesso schema chiave ^ valore della tabella di F4Solver
+    private final long[] cacheKeys, cacheValues;
+    private final int cacheMask;
+    // Richieste uguali arrivate mentre la prima e' ancora in calcolo aspettano lo stesso risultato
+    private final ConcurrentHashMap<Long, List<Waiter>> inflight = new ConcurrentHashMap<>();
+
+    private static final class Waiter {
+        final Player p;
+        final String id;
+        Waiter(Player p, String id) { this.p = p; this.id = id; }
+    }
+
+    AnalysisService(int workers, int queue, long millis, int cacheEntries) {
+        this.millis = millis;
+        pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, "analysis");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        int size = Integer.highestOneBit(Math.max(1024, cacheEntries));
+        cacheKeys = new long[size];
+        cacheValues = new long[size];
+        cacheMask = size - 1;
+    }
+
+    void submit(Player p, String line) {
+        String[] t = line.split(" ");
+        String id = t.length > 1 ? t[1] : "?";
+        F4Board b;
+        try {
+            if (t.length != 5) throw new IllegalArgumentException("formato");
+            int rows = Integer.parseInt(t[2]);
+            int cols = Integer.parseInt(t[3]);
+            if (rows < 1 || cols < 1 || (long) rows * cols > MAX_CELLS) throw new IllegalArgumentException("dimensioni");
+            b = new F4Board(rows, cols);
+            if (!t[4].equals("-")) {
+                for (String m : t[4].split(",")) {
+                    int c = Integer.parseInt(m);
+                    if (!b.canPlay(c)) throw new IllegalArgumentException("mossa");
+                    b.drop(c, b.moves() & 1);
+                    if (b.lastMoveWins()) throw new IllegalArgumentException("partita_finita");
+                }
+            }
+            if (b.isFull()) throw new IllegalArgumentException("partita_finita");
+        } catch (NumberFormatException e) {
+            p.send("ANALYSIS_ERROR " + id + " formato");
+            return;
+        } catch (IllegalArgumentException e) {
+            p.send("ANALYSIS_ERROR " + id + " " + e.getMessage());
+            return;
+        }
+
+        long key = cacheKey(b);
+        int idx = (int) key & cacheMask;
+        long v = cacheValues[idx];
+        if ((cacheKeys[idx] ^ v) == key) {
+            p.send("ANALYSIS " + id + " " + (int) (v >> 32) + " " + (int) v);
+            return;
+        }
+
+        boolean[] first = new boolean[1];
+        inflight.compute(key, (k, list) -> {
+            if (list == null) { list = new ArrayList<>(); first[0] = true; }
+            list.add(new Waiter(p, id));
+            return list;
+        });
+        if (!first[0]) return;
+
+        try {
+            pool.execute(() -> {
+                F4Solver.Result r = null;
+                try {
+                    r = solvers.get().search(b, b.moves() & 1, millis);
+                    long nv = ((long) r.score << 32) | (r.move & 0xFFFFFFFFL);
+                    cacheValues[idx] = nv;
+                    cacheKeys[idx] = key ^ nv;
+                } finally {
+                    // Anche se la ricerca fallisce chi aspetta riceve una risposta e la chiave si libera
+                    for (Waiter w : inflight.remove(key)) {
+                        if (r != null) w.p.send("ANALYSIS " + w.id + " " + r.score + " " + r.move);
+                        else w.p.send("ANALYSIS_ERROR " + w.id + " interno");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            for (Waiter w : inflight.remove(key)) w.p.send("ANALYSIS_BUSY " + w.id);
+        }
+    }
+
+    private static long cacheKey(F4Board b) {
+        return b.hash() ^ ((b.rows * 4099L + b.cols) * 0x9E3779B97F4A7C15L);
+    }
+}
@@ -0,0 +1,118 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Verifica che il ciclo di una mossa a regime non allochi, sullo stesso
+ * percorso del server: decodifica di "MOVE c" (testo) o del frame MOVE
+ * (binario) come in NioPlayer, poi F4Server.onFrame e Match.onMove, con
+ * board, scadenza del turno, metriche e codifica dei messaggi ai giocatori.
+ * Misura i byte allocati dal thread corrente con com.sun.management.ThreadMXBean.
+ *
+ * Si contano solo le mosse centrali di ogni partita: la creazione della
+ * partita, il primo turno di ciascun posto (arma la sua scadenza) e la mossa
+ * che la chiude allocano, ma una volta per partita.
+ *
+ * Uso: java -cp .:../F4Common CodecAllocCheck [mosse]
+ * Esce con codice 1 se una delle due modalita' alloca.
+ */
+class CodecAllocCheck {
+    /** Giocatore finto: i messaggi restano nel buffer, che si svuota a ogni mossa. */
+    static class BufferPlayer extends Player {
+        final ByteBuffer out = ByteBuffer.allocate(4096);
+        @Override ByteBuffer outBuffer(int n) { return out; }
+        @Override void outReady() {}
+        @Override void close() {}
+        @Override void wake() {}
+    }
+
+    public static void main(String[] args) throws Exception {
+        int moves = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Map<String, String> opts = new HashMap<>();
+        opts.put("log-level", "warn");
+        // Scadenze brevi e niente posti per la ripresa: le partite finite non restano in memoria
+        opts.put("move-ms", "1000");
+        opts.put("resume-ms", "0");
+        F4Server server = new F4Server(6, 7, 'X', 'O', opts);
+        boolean ok = run(server, false, moves) & run(server, true, moves);
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean run(F4Server server, boolean binary, int moves) {
+        // Una partita sempre uguale: le colonne in ordine, fino alla vittoria o alla board piena
+        F4Board scratch = new F4Board(6, 7);
+        int[] game = new int[42];
+        int len = 0;
+        while (true) {
+            int col = len % 7;
+            while (!scratch.canPlay(col)) col = (col + 1) % 7;
+            scratch.drop(col, len & 1);
+            game[len++] = col;
+            if (scratch.lastMoveWins() || scratch.isFull()) break;
+        }
+
+        // Le righe in arrivo, gia' nel buffer di ricezione come le lascia il trasporto
+        ByteBuffer[] in = new ByteBuffer[7];
+        for (int c = 0; c < 7; c++) {
+            in[c] = ByteBuffer.allocate(16);
+            if (binary) F4Proto.putMove(in[c], c);
+            else in[c].put(("MOVE " + c).getBytes(StandardCharsets.US_ASCII));
+            in[c].flip();
+        }
+        F4Proto.Frame f = new F4Proto.Frame();
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long allocated = 0, checksum = 0;
+        int measured = 0;
+        int ids = 0;
+        // Prima un giro uguale di riscaldamento, per il JIT
+        for (boolean warm = true; ; warm = false) {
+            for (int done = 0; done < moves; ) {
+                BufferPlayer p1 = new BufferPlayer(), p2 = new BufferPlayer();
+                p1.name = "A";
+                p2.name = "B";
+                p1.symbol = 'X';
+                p2.symbol = 'O';
+                if (binary) {
+                    p1.enableBinary();
+                    p2.enableBinary();
+                }
+                Match m = new Match(server, ++ids, p1, p2, 6, 7);
+                m.start();
+                p1.out.clear();
+                p2.out.clear();
+
+                long before = 0;
+                for (int i = 0; i < len; i++) {
+                    if (i == 2) before = mx.getThreadAllocatedBytes(tid);
+                    if (i == len - 1 && !warm) allocated += mx.getThreadAllocatedBytes(tid) - before;
+                    BufferPlayer p = (i & 1) == 0 ? p1 : p2;
+                    ByteBuffer line = in[game[i]];
+                    line.rewind();
+                    boolean parsed;
+                    try {
+                        parsed = binary ? F4Proto.decode(line, f) : F4Text.parse(line.array(), 0, line.limit(), f);
+                    } catch (java.io.IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    if (!parsed || f.op != F4Proto.MOVE) throw new IllegalStateException("Mossa non riconosciuta");
+                    server.onFrame(p, f);
+
+                    checksum += p1.out.position() + p2.out.position();
+                    p1.out.clear();
+                    p2.out.clear();
+                }
+                done += len - 3;
+                if (!warm) measured += len - 3;
+            }
+            if (!warm) break;
+        }
+        System.out.printf("%-6s %d mosse (%d per partita), %d byte allocati (%.4f per mossa) [%d]%n",
+                binary ? "binary" : "text", measured, len - 3, allocated, (double) allocated / measured, checksum);
+        // Qualche centinaio di byte puo' venire dalla JVM stessa (JIT, misura): non dalle mosse
+        return allocated < 1024;
+    }
+}
@@ -0,0 +1,529 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Router davanti a piu' nodi F4Server avviati con --node-key: i client si
+ * collegano qui come a un server normale e il router fa da proxy, riga per
+ * riga, verso il nodo scelto. Con ogni nodo tiene una connessione di
+ * controllo da cui riceve il carico (vedi RouterLink).
+ *
+ * Un giocatore nuovo va dove qualcuno aspetta gia' da solo, cosi' la coppia
+ * si forma sullo stesso nodo; altrimenti sul nodo meno carico (partite in
+ * corso e coda, piu' quelli mandati dopo l'ultimo rapporto). Se piu' nodi
+ * hanno gente in coda per piu' di un giro di ribilanciamento, quelli in coda
+ * sui nodi minori vengono rimandati qui (SHED) e riassegnati.
+ *
+ * Svuotare un nodo (comando "svuota") non fa perdere partite: il nodo ferma
+ * ogni partita e ne manda lo stato, il router la importa su un altro nodo e
+ * ricollega i due client, che non se ne accorgono: ricevono solo di nuovo
+ * il loro turno (una mossa in viaggio durante lo spostamento va ripetuta).
+ * L'offerta del protocollo binario non passa, quindi dietro il router i
+ * client parlano testo. Gli spettatori vanno sul nodo con piu' partite e
+ * "WATCH id" vale per gli id di quel nodo. Chi torna con "RESUME token"
+ * dopo una caduta va sul nodo che gli ha dato il token.
+ *
+ * La chiave dei nodi e' obbligatoria e va tenuta segreta: con quella si
+ * comandano i nodi (svuotamento, importazione di partite).
+ *
+ * Uso: java F4Router --nodes=host:porta,host:porta --node-key=chiave [--port=4444]
+ * Comandi dalla console: nodi | aggiungi host:porta | svuota host:porta
+ */
+public class F4Router {
+    private static final long ALIVE_MS = 1000, REBALANCE_MS = 500, IMPORT_MS = 5000, SWITCH_MS = 2000, SEAT_MS = 600_000;
+    private static final int HELLO_MS = 10_000;
+
+    /** Un nodo con la sua connessione di controllo. */
+    private final class Node {
+        final String host;
+        final int port;
+        volatile boolean alive, draining;
+        volatile int active, lobby;
+        volatile long seenAt;
+        // Sotto il lock del router: giocatori mandati dopo l'ultimo LOAD, giri con gente in coda
+        int sent, lonely;
+        volatile BufferedWriter ctl;
+        // Sessioni per porta locale della connessione verso il nodo
+        final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+
+        Node(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        void send(String line) throws IOException {
+            BufferedWriter w = ctl;
+            if (w == null) throw new IOException("nodo " + this + " non collegato");
+            synchronized (w) {
+                w.write(line);
+                w.write('\n');
+                w.flush();
+            }
+        }
+
+        /** Connessione di controllo, ritentata ogni secondo finche' il nodo non risponde. */
+        void controlLoop() {
+            while (true) {
+                try (Socket s = new Socket()) {
+                    s.connect(new InetSocketAddress(host, port), 3000);
+                    s.setTcpNoDelay(true);
+                    BufferedReader in = reader(s);
+                    BufferedWriter out = writer(s);
+                    ctl = out;
+                    send("NODE " + key);
+                    String line;
+                    while ((line = in.readLine()) != null) onControl(this, line);
+                } catch (IOException e) {
+                    // nodo non ancora avviato o appena uscito
+                }
+                ctl = null;
+                if (alive) log("Nodo " + this + " scollegato");
+                alive = false;
+                try { Thread.sleep(1000); } catch (InterruptedException e) { return; }
+            }
+        }
+
+        @Override
+        public String toString() { return host + ":" + port; }
+    }
+
+    /** La connessione verso il nodo di una sessione; quella vecchia resta "replaced" dopo uno spostamento. */
+    private static final class Upstream {
+        final Node node;
+        final Socket socket;
+        final BufferedWriter out;
+        final int localPort;
+        volatile boolean replaced;
+        Thread pump;
+
+        Upstream(Node node, Socket socket) throws IOException {
+            this.node = node;
+            this.socket = socket;
+            this.out = writer(socket);
+            this.localPort = socket.getLocalPort();
+        }
+    }
+
+    /** Un client e il nodo a cui e' collegato ora. */
+    private static final class Session {
+        final Socket client;
+        final BufferedReader in;
+        final BufferedWriter out;
+        String hello;
+        Upstream up;
+        volatile boolean closed;
+
+        Session(Socket client) throws IOException {
+            this.client = client;
+            this.in = reader(client);
+            this.out = writer(client);
+        }
+
+        void toClient(String line) throws IOException {
+            synchronized (out) {
+                out.write(line);
+                out.write('\n');
+                out.flush();
+            }
+        }
+
+        void close() {
+            closed = true;
+            try { client.close(); } catch (IOException e) {}
+            Upstream u = up;
+            if (u != null) try { u.socket.close(); } catch (IOException e) {}
+        }
+    }
+
+    private final int port;
+    private final String key;
+    private final List<Node> nodes = new CopyOnWriteArrayList<>();
+    private final Map<String, CompletableFuture<Void>> imports = new ConcurrentHashMap<>();
+    // Token di ripresa visti passare -> nodo e istante, per i RESUME
+    private final Map<String, Node> seats = new ConcurrentHashMap<>();
+    private final Map<String, Long> seatTimes = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    private final SecureRandom random = new SecureRandom();
+
+    public static void main(String[] args) {
+        int port = 4444;
+        String key = null, list = null;
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            String k = eq < 0 ? a : a.substring(0, eq), v = eq < 0 ? "" : a.substring(eq + 1);
+            switch (k) {
+                case "--port": port = Integer.parseInt(v); break;
+                case "--node-key": key = v; break;
+                case "--nodes": list = v; break;
+                default:
+                    System.err.println("Opzione sconosciuta: " + a);
+                    System.exit(2);
+            }
+        }
+        if (list == null || key == null || key.isEmpty()) {
+            System.err.println("Uso: java F4Router --nodes=host:porta,host:porta --node-key=chiave [--port=4444]");
+            System.exit(2);
+        }
+        F4Router r = new F4Router(port, key);
+        for (String n : list.split(",")) r.addNode(n.trim());
+        try {
+            r.start();
+        } catch (IOException e) {
+            System.err.println("Errore router: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    F4Router(int port, String key) {
+        this.port = port;
+        this.key = key;
+    }
+
+    void start() throws IOException {
+        ServerSocket ss = new ServerSocket(port, 1024);
+        log("Router avviato sulla porta " + port + ", nodi: " + nodes);
+        daemon("router-rebalance", this::rebalanceLoop);
+        daemon("router-console", this::console);
+        while (true) {
+            Socket c = ss.accept();
+            c.setTcpNoDelay(true);
+            workers.execute(() -> serve(c));
+        }
+    }
+
+    private void addNode(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        Node n = new Node(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+        nodes.add(n);
+        daemon("router-node-" + n, n::controlLoop);
+    }
+
+    private Node find(String hostPort) {
+        for (Node n : nodes) if (n.toString().equals(hostPort)) return n;
+        return null;
+    }
+
+    // --- sessioni dei client ---
+
+    private void serve(Socket c) {
+        Session s;
+        try {
+            s = new Session(c);
+        } catch (IOException e) {
+            try { c.close(); } catch (IOException ex) {}
+            return;
+        }
+        try {
+            c.setSoTimeout(HELLO_MS);
+            String hello = s.in.readLine();
+            if (hello == null) return;
+            c.setSoTimeout(0);
+            // NODE e SEAT li manda solo il router: da un client sarebbero un modo per comandare i nodi
+            if (hello.startsWith("NODE ") || hello.startsWith("SEAT ")) {
+                log("Presentazione rifiutata da " + c.getRemoteSocketAddress());
+                return;
+            }
+            s.hello = hello;
+            String[] f = hello.split(" ");
+            Node n = hello.startsWith("WATCH") ? busiest()
+                    : f[0].equals(F4Proto.RESUME) && f.length > 1 ? seatNode(f[1])
+                    : pick(null, !hello.startsWith("ANALYZE "));
+            if (n == null) {
+                log("Nessun nodo disponibile");
+                return;
+            }
+            synchronized (s) {
+                s.up = connect(s, n, hello);
+            }
+            String line;
+            while ((line = s.in.readLine()) != null) {
+                synchronized (s) {
+                    try {
+                        send(s.up.out, line);
+                    } catch (IOException e) {
+                        // il nodo e' caduto: la sessione finisce con lui
+                        if (!s.up.replaced) break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // client sparito
+        } finally {
+            s.close();
+        }
+    }
+
+    /** Apre la connessione verso n e avvia il thread che ne porta le righe al client. */
+    private Upstream connect(Session s, Node n, String hello) throws IOException {
+        Socket u = new Socket();
+        try {
+            u.connect(new InetSocketAddress(n.host, n.port), 3000);
+            u.setTcpNoDelay(true);
+            Upstream up = new Upstream(n, u);
+            n.sessions.put(up.localPort, s);
+            send(up.out, hello);
+            up.pump = daemon("router-pump", () -> pump(s, up));
+            return up;
+        } catch (IOException e) {
+            u.close();
+            throw e;
+        }
+    }
+
+    private void pump(Session s, Upstream up) {
+        try (BufferedReader in = reader(up.socket)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals(F4Proto.OFFER)) continue;
+                if (line.startsWith(F4Proto.RESUME_TOKEN + " ")) {
+                    String t = line.substring(F4Proto.RESUME_TOKEN.length() + 1);
+                    seats.put(t, up.node);
+                    seatTimes.put(t, System.nanoTime());
+                }
+                s.toClient(line);
+            }
+        } catch (IOException e) {
+            // connessione chiusa
+        }
+        up.node.sessions.remove(up.localPort);
+        if (!up.replaced) s.close();
+    }
+
+    /**
+     * Sposta la sessione su un altro nodo, presentandosi con hello. Prima si
+     * chiude la scrittura verso il nodo vecchio e si aspetta che abbia spedito
+     * tutto, cosi' le sue ultime righe arrivano al client prima delle nuove.
+     */
+    private void move(Session s, Node to, String hello) {
+        synchronized (s) {
+            if (s.closed) return;
+            Upstream old = s.up;
+            old.replaced = true;
+            old.node.sessions.remove(old.localPort);
+            try {
+                old.socket.shutdownOutput();
+                old.pump.join(SWITCH_MS);
+            } catch (IOException | InterruptedException e) {
+                // si chiude comunque
+            }
+            try { old.socket.close(); } catch (IOException e) {}
+            try {
+                s.up = connect(s, to, hello);
+            } catch (IOException e) {
+                log("Spostamento su " + to + " fallito: " + e.getMessage());
+                s.close();
+            }
+        }
+    }
+
+    // --- controllo dei nodi ---
+
+    private void onControl(Node n, String line) {
+        String[] f = line.split(" ");
+        switch (f[0]) {
+            case "LOAD":
+                n.active = Integer.parseInt(f[1]);
+                n.lobby = Integer.parseInt(f[2]);
+                n.draining = f[3].equals("1");
+                n.seenAt = System.nanoTime();
+                if (!n.alive) log("Nodo " + n + " collegato");
+                n.alive = true;
+                synchronized (this) {
+                    n.sent = 0;
+                }
+                break;
+            case "MIGRATE": {
+                Session s1 = n.sessions.get(Integer.parseInt(f[1])), s2 = n.sessions.get(Integer.parseInt(f[2]));
+                String state = line.substring(f[0].length() + f[1].length() + f[2].length() + 3);
+                workers.execute(() -> migrate(n, s1, s2, state));
+                break;
+            }
+            case "REQUEUE": {
+                Session s = n.sessions.get(Integer.parseInt(f[1]));
+                if (s != null) workers.execute(() -> {
+                    Node to = pick(n, true);
+                    if (to != null) move(s, to, s.hello);
+                    else s.close();
+                });
+                break;
+            }
+            case "IMPORTED": {
+                CompletableFuture<Void> done = imports.remove(f[1]);
+                if (done != null) done.complete(null);
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /** Una partita ferma sul nodo from: la si importa altrove e ci si ricollegano i due client. */
+    private void migrate(Node from, Session s1, Session s2, String state) {
+        Node to = pick(from, false);
+        if (to == null) {
+            log("Nessun nodo per una partita da " + from + ": chiusa");
+            if (s1 != null) s1.close();
+            if (s2 != null) s2.close();
+            return;
+        }
+        String t1 = token(), t2 = token();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        imports.put(t1, done);
+        try {
+            to.send("IMPORT " + t1 + " " + t2 + " " + state);
+            done.get(IMPORT_MS, TimeUnit.MILLISECONDS);
+        } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+            imports.remove(t1);
+            log("Importazione su " + to + " fallita: " + e.getMessage());
+            if (s1 != null) s1.close();
+            if (s2 != null) s2.close();
+            return;
+        }
+        if (s1 != null) move(s1, to, "SEAT " + t1);
+        if (s2 != null) move(s2, to, "SEAT " + t2);
+    }
+
+    /**
+     * Nodo per un giocatore nuovo (waiting) o per una partita: solo nodi vivi e
+     * non in svuotamento, diversi da exclude. Chi cerca un avversario va dove
+     * qualcuno aspetta da solo, poi conta il carico.
+     */
+    private synchronized Node pick(Node exclude, boolean waiting) {
+        long now = System.nanoTime();
+        Node best = null;
+        long bestLoad = Long.MAX_VALUE;
+        for (Node n : nodes) {
+            if (n == exclude || !n.alive || n.draining || now - n.seenAt > ALIVE_MS * 1_000_000) continue;
+            int queue = n.lobby + n.sent;
+            long load = 2L * n.active + queue + (waiting && queue % 2 == 1 ? 0 : 1L << 40);
+            if (load < bestLoad) {
+                best = n;
+                bestLoad = load;
+            }
+        }
+        if (best != null && waiting) best.sent++;
+        return best;
+    }
+
+    /** Nodo del token; se non e' noto o e' caduto uno qualsiasi, che rispondera' RESUME_FAILED. */
+    private Node seatNode(String token) {
+        Node n = seats.get(token);
+        return n != null && n.alive ? n : pick(null, false);
+    }
+
+    private Node busiest() {
+        Node best = null;
+        for (Node n : nodes) if (n.alive && (best == null || n.active > best.active)) best = n;
+        return best;
+    }
+
+    /** Se piu' nodi hanno gente in coda da piu' di un giro, tutti tranne il piu' affollato la rimandano qui. */
+    private void rebalanceLoop() {
+        while (true) {
+            try { Thread.sleep(REBALANCE_MS); } catch (InterruptedException e) { return; }
+            long now = System.nanoTime();
+            seatTimes.entrySet().removeIf(e -> {
+                if (now - e.getValue() < SEAT_MS * 1_000_000) return false;
+                seats.remove(e.getKey());
+                return true;
+            });
+            Node keep = null;
+            int waitingNodes = 0;
+            synchronized (this) {
+                for (Node n : nodes) {
+                    n.lonely = n.alive && !n.draining && n.lobby > 0 ? n.lonely + 1 : 0;
+                    if (n.lonely < 2) continue;
+                    waitingNodes++;
+                    if (keep == null || n.lobby > keep.lobby) keep = n;
+                }
+            }
+            if (waitingNodes < 2) continue;
+            for (Node n : nodes) {
+                if (n == keep || n.lonely < 2) continue;
+                n.lonely = 0;
+                try {
+                    n.send("SHED");
+                } catch (IOException e) {
+                    // nodo appena caduto
+                }
+            }
+        }
+    }
+
+    private void console() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.trim().split("\\s+");
+                if (f[0].equals("nodi")) {
+                    for (Node n : nodes) {
+                        System.out.println(n + (n.alive ? n.draining ? " in svuotamento" : " attivo" : " scollegato")
+                                + ", partite " + n.active + ", in coda " + n.lobby + ", sessioni " + n.sessions.size());
+                    }
+                } else if (f[0].equals("aggiungi") && f.length == 2) {
+                    if (find(f[1]) == null) addNode(f[1]);
+                } else if (f[0].equals("svuota") && f.length == 2) {
+                    drain(f[1]);
+                } else if (!f[0].isEmpty()) {
+                    System.out.println("Comandi: nodi | aggiungi host:porta | svuota host:porta");
+                }
+            }
+        } catch (IOException e) {
+            // console chiusa: il router continua
+        }
+    }
+
+    private void drain(String hostPort) {
+        Node n = find(hostPort);
+        if (n == null || !n.alive) {
+            System.out.println("Nodo sconosciuto o scollegato: " + hostPort);
+            return;
+        }
+        // Senza un altro nodo le partite non avrebbero dove andare
+        if (pick(n, false) == null) {
+            System.out.println("Nessun altro nodo attivo: " + hostPort + " non si svuota");
+            return;
+        }
+        try {
+            n.draining = true;
+            n.send("DRAIN");
+            log("Svuotamento di " + n);
+        } catch (IOException e) {
+            System.out.println("Svuotamento fallito: " + e.getMessage());
+        }
+    }
+
+    private String token() {
+        return Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+    }
+
+    private static void send(BufferedWriter w, String line) throws IOException {
+        w.write(line);
+        w.write('\n');
+        w.flush();
+    }
+
+    private static BufferedReader reader(Socket s) throws IOException {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static BufferedWriter writer(Socket s) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static Thread daemon(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private static void log(String s) {
+        System.out.println(java.time.LocalTime.now().withNano(0) + " " + s);
+    }
+}
@@ -1,33 +1,67 @@
-import javax.swing.*;
-import javax.swing.border.EmptyBorder;
-import java.awt.*;
-import java.awt.geom.Rectangle2D;
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
-import javax.swing.Timer;
-
-public class F4Server extends JFrame{
-    private JLabel lblStatus;
-    private JLabel lblP1, lblP2;
-    private JPanel boardPanel;
-    private JTextArea logArea;
-
-    private final int port = 4444;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Il server: accetta le connessioni, forma le coppie e fa girare le partite.
+ * Non usa AWT: con --headless parte senza display, altrimenti gli si aggancia
+ * il monitor Swing (ServerMonitor).
+ */
+public class F4Server {
+    private final int port;
+    private static final long RESUME_MS = 120_000;
     private int rows, cols;
     private char sym1, sym2;
+    private String ioMode;
+    private int ioLoops;
+    private int readTimeout;
+    private AnalysisService analysis;
+    private boolean binaryProto;
+    private boolean noDelay;
+    private long handshakeMs, idleMs;
+    final long moveMs, clockMs;
+    // Quanto resta libero il posto di chi perde la connessione in partita (0: la partita finisce subito)
+    final long resumeMs;
+    private final Map<String, Match> seats = new ConcurrentHashMap<>();
+    private final SecureRandom seatRandom = new SecureRandom();
+    // Scadenze e coppie dei ritentativi girano su un pool a parte: prendono il lock della partita e scrivono sui socket
+    private final Executor workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "worker");
+        t.setDaemon(true);
+        return t;
+    });
+    final TimerWheel timers = new TimerWheel(10, 512, workers);
+    private final Map<String, String> opts;
+    private Journal journal;
+    private F4Archive.Writer archive;
+    private final RouterLink router;
+    private final List<Journal.Saved> resumable = new ArrayList<>();
+    final Metrics metrics = new Metrics();
+    private final Log logger;
 
     private ServerSocket serverSocket;
-    private Player p1, p2;
-    private char[][] board;
-
-    private Timer scanTimer;
-    private int dotCount = 0;
+    private final Matchmaker<Player> matchmaker = new Matchmaker<>(4000, timers, workers, this::startMatch);
+    private RatingStore ratings;
+    private Executor connPool;
+    private final AtomicInteger activeMatches = new AtomicInteger();
+    private final AtomicInteger matchIds = new AtomicInteger();
+    private final Map<Integer, Match> liveMatches = new ConcurrentHashMap<>();
+    private volatile Match watched;
 
     public static void main (String[] args) {
+        boolean headless = Arrays.asList(args).contains("--headless");
         if (args.length < 4) {
-            JOptionPane.showMessageDialog(null, "Parametri mancanti!\nUso: java F4Server <righe> <colonne> <sim1> <sim2>");
-            System.exit(1);
+            fail("Parametri mancanti!\nUso: java F4Server <righe> <colonne> <sim1> <sim2> [--headless] [--log-level=debug|info|warn|error] [--log-file=file] [--log-buffer=N]\n[--port=N] [--node-key=chiave]\n[--io=blocking|nio|virtual] [--loops=N] [--read-timeout=ms] [--binary=true|false] [--nodelay=true|false]\n[--move-ms=ms] [--clock-ms=ms] [--handshake-ms=ms] [--idle-ms=ms] [--resume-ms=ms]\n[--journal=cartella] [--journal-sync-ms=ms] [--journal-segment-mb=N] [--journal-max-mb=N] [--metrics-port=N] [--ratings=file]\n[--archive=cartella] [--archive-level=0..9] [--archive-flush-ms=ms]\n[--analysis-workers=N] [--analysis-queue=N] [--analysis-ms=ms] [--analysis-cache=N]", headless);
         }
         try {
             int r = Integer.parseInt(args[0]);
@@ -36,285 +70,491 @@ public class F4Server extends JFrame{
             char s2 = args[3].charAt(0);
             if (s1 == s2) throw new Exception("Simboli uguali");
 
-            SwingUtilities.invokeLater(() -> new F4Server(r, c, s1, s2));
+            Map<String, String> opts = parseOptions(args, 4);
+            String io = opts.getOrDefault("io", "blocking");
+            if (!io.equals("blocking") && !io.equals("nio") && !io.equals("virtual")) throw new Exception("Modo I/O sconosciuto: " + io);
+            if (io.equals("virtual") && virtualThreadFactory() == null) fail("--io=virtual richiede Java 21 o superiore", headless);
+            F4Server server = new F4Server(r, c, s1, s2, opts);
+            if (headless) server.start();
+            else ServerMonitor.open(server);
         } catch (Exception e) {
+            System.err.println(e.getMessage());
             System.exit(1);
         }
     }
 
-    public F4Server(int rows, int cols, char s1, char s2) {
-        super("F4 Server Monitor");
+    private static void fail(String msg, boolean headless) {
+        if (headless) System.err.println(msg);
+        else ServerMonitor.showError(msg);
+        System.exit(1);
+    }
+
+    private static Map<String, String> parseOptions(String[] args, int from) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = from; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Opzione non valida: " + args[i]);
+            int eq = args[i].indexOf('=');
+            if (eq < 0) opts.put(args[i].substring(2), "true");
+            else opts.put(args[i].substring(2, eq), args[i].substring(eq + 1));
+        }
+        return opts;
+    }
+
+    public F4Server(int rows, int cols, char s1, char s2, Map<String, String> opts) throws IOException {
         this.rows = rows;
         this.cols = cols;
         this.sym1 = s1;
         this.sym2 = s2;
+        this.port = Integer.parseInt(opts.getOrDefault("port", "4444"));
+        // Con una chiave il server e' un nodo dietro F4Router, che si collega con "NODE chiave"
+        String nodeKey = opts.get("node-key");
+        if (nodeKey != null && (nodeKey.isEmpty() || nodeKey.equals("true"))) throw new IllegalArgumentException("--node-key richiede una chiave");
+        this.router = nodeKey != null ? new RouterLink(this, nodeKey) : null;
+        this.ioMode = opts.getOrDefault("io", "blocking");
+        this.ioLoops = Integer.parseInt(opts.getOrDefault("loops", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.readTimeout = Integer.parseInt(opts.getOrDefault("read-timeout", "0"));
+        this.binaryProto = Boolean.parseBoolean(opts.getOrDefault("binary", "true"));
+        this.noDelay = Boolean.parseBoolean(opts.getOrDefault("nodelay", "true"));
+        this.moveMs = Long.parseLong(opts.getOrDefault("move-ms", "60000"));
+        this.clockMs = Long.parseLong(opts.getOrDefault("clock-ms", "0"));
+        this.handshakeMs = Long.parseLong(opts.getOrDefault("handshake-ms", "10000"));
+        this.idleMs = Long.parseLong(opts.getOrDefault("idle-ms", "300000"));
+        this.resumeMs = Long.parseLong(opts.getOrDefault("resume-ms", "30000"));
+        this.opts = opts;
+        this.analysis = new AnalysisService(
+                Integer.parseInt(opts.getOrDefault("analysis-workers", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(opts.getOrDefault("analysis-queue", "4096")),
+                Long.parseLong(opts.getOrDefault("analysis-ms", "50")),
+                Integer.parseInt(opts.getOrDefault("analysis-cache", "1048576")));
+        String logFile = opts.get("log-file");
+        this.logger = new Log(Log.parseLevel(opts.getOrDefault("log-level", "info")),
+                Integer.parseInt(opts.getOrDefault("log-buffer", "8192")),
+                logFile != null ? new FileOutputStream(logFile, true) : new FileOutputStream(FileDescriptor.out));
+    }
 
-        setupGUI();
-        new Thread(this::serverLoop).start();
-    }
-
-    private void setupGUI() {
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(900, 600);
-        setLayout(new BorderLayout());
-
-        JPanel header = new JPanel(new GridLayout(2, 1));
-        header.setBorder(new EmptyBorder(10,10,10,10));
-        header.setBackground(new Color(230,230,230));
-
-        lblStatus = new JLabel("Server Attivo - Porta " + port);
-        lblStatus.setFont(new Font("Arial", Font.BOLD, 16));
-        lblStatus.setHorizontalAlignment(SwingConstants.CENTER);
-        header.add(lblStatus);
-
-        JPanel playersPanel = new JPanel(new GridLayout(1, 2));
-        lblP1 = new JLabel("Player 1: Scanning...");
-        lblP2 = new JLabel("Player 2: Scanning...");
-        lblP1.setHorizontalAlignment(SwingConstants.CENTER);
-        lblP2.setHorizontalAlignment(SwingConstants.CENTER);
-        playersPanel.add(lblP1);
-        playersPanel.add(lblP2);
-        header.add(playersPanel);
-        add(header, BorderLayout.NORTH);
-
-        board = new char[rows][cols];
-        for(char[] r : board) Arrays.fill(r, ' ');
-
-        boardPanel = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                drawBoard(g);
-            }
-        };
-        boardPanel.setBackground(Color.LIGHT_GRAY);
-        add(boardPanel, BorderLayout.CENTER);
-
-        logArea = new JTextArea();
-        logArea.setEditable(false);
-        JScrollPane scroll = new JScrollPane(logArea);
-        scroll.setPreferredSize(new Dimension(250, 0));
-        scroll.setBorder(BorderFactory.createTitledBorder("Log"));
-        add(scroll, BorderLayout.EAST);
-
-        scanTimer = new Timer(500, e -> animateLabels());
-        scanTimer.start();
-
-        setVisible(true);
+    void start() {
+        new Thread(this::serverLoop, "server").start();
     }
 
     private void serverLoop() {
+        openJournal();
+        openRatings();
+        openArchive();
+        startMetrics();
         try {
-            serverSocket = new ServerSocket(port);
-            log("Server avviato.");
+            if (ioMode.equals("nio")) {
+                log("Server avviato (NIO, " + ioLoops + " event loop).");
+                new NioTransport(this, port, ioLoops, noDelay).start();
+                return;
+            }
+            if (ioMode.equals("virtual")) {
+                ThreadFactory vf = virtualThreadFactory();
+                connPool = r -> vf.newThread(r).start();
+            } else {
+                connPool = Executors.newCachedThreadPool();
+            }
+            serverSocket = new ServerSocket(port, 1024);
+            log("Server avviato (" + ioMode + ").");
 
             while (true) {
-    p1 = null;
-    p2 = null;
-    board = new char[rows][cols];
-    for(char[] r : board) Arrays.fill(r, ' ');
-
-    SwingUtilities.invokeLater(() -> {
-        boardPanel.repaint();
-        lblP1.setText("Player 1: In attesa...");
-        lblP2.setText("Player 2: In attesa...");
-    });
-    log("--- In attesa di nuova partita ---");
-
-    try {
-        // Connessione Giocatore 1
-        p1 = acceptPlayer(sym1);
-        
-        SwingUtilities.invokeLater(() -> lblP1.setText("P1: " + p1.name));
-        p1.send("CONFIG " + rows + " " + cols + " " + sym1 + " RED");
-
-        // Connessione Giocatore 2
-        p2 = acceptPlayer(sym2);
-        
-        SwingUtilities.invokeLater(() -> lblP2.setText("P2: " + p2.name));
-        p2.send("CONFIG " + rows + " " + cols + " " + sym2 + " YELLOW");
-
-        // Risoluzione conflitto nomi
-        if (p1.name.equals(p2.name)) { 
-            p1.name += "1"; 
-            p2.name += "2"; 
+                Socket s = serverSocket.accept();
+                // Senza timeout un client muto terrebbe occupato il suo thread per sempre
+                if (readTimeout > 0) s.setSoTimeout(readTimeout);
+                // I messaggi di un turno partono gia' in un'unica scrittura: Nagle li ritarderebbe soltanto
+                s.setTcpNoDelay(noDelay);
+                connPool.execute(new SocketPlayer(this, s));
+            }
+        } catch (IOException e) {
+            warn("Errore Server: " + e.getMessage());
         }
+    }
 
-        log("Partita: " + p1.name + " vs " + p2.name);
-        p1.send("START " + p2.name + " " + sym2);
-        p2.send("START " + p1.name + " " + sym1);
+    /**
+     * Apre il journal se richiesto (--journal=cartella) e prepara la ripresa
+     * delle partite rimaste in corso: chi si riconnette con lo stesso nome
+     * ritrova il suo posto, finche' non scade RESUME_MS.
+     */
+    private void openJournal() {
+        String dir = opts.get("journal");
+        if (dir == null) return;
+        try {
+            journal = new Journal(this, Paths.get(dir),
+                    Integer.parseInt(opts.getOrDefault("journal-segment-mb", "4")) << 20,
+                    Long.parseLong(opts.getOrDefault("journal-max-mb", "64")) << 20,
+                    Long.parseLong(opts.getOrDefault("journal-sync-ms", "5")));
+        } catch (IOException | RuntimeException e) {
+            warn("Journal non disponibile: " + e.getMessage());
+            return;
+        }
+        matchIds.set(journal.maxId());
+        List<Journal.Saved> saved = journal.recovered();
+        if (saved.isEmpty()) return;
+        synchronized (resumable) {
+            resumable.addAll(saved);
+        }
+        log("Journal: " + saved.size() + " partite da riprendere");
+        Thread t = new Thread(() -> {
+            try { Thread.sleep(RESUME_MS); } catch (InterruptedException e) { return; }
+            expireResumes();
+        }, "journal-resume");
+        t.setDaemon(true);
+        t.start();
+    }
 
-        // Avvio logica di gioco
-        playMatch();
+    Journal journal() { return journal; }
 
-    } catch (IOException e) {
-        log("Errore connessione: " + e.getMessage());
+    /** Punteggi per l'accoppiamento: su file con --ratings=file, altrimenti solo in memoria. */
+    private void openRatings() {
+        String file = opts.get("ratings");
+        try {
+            ratings = new RatingStore(file != null ? Paths.get(file) : null);
+        } catch (IOException | RuntimeException e) {
+            warn("Punteggi non disponibili su file: " + e.getMessage());
+            try { ratings = new RatingStore(null); } catch (IOException never) {}
+        }
     }
 
-    log("Chiusura connessioni...");
-    try { Thread.sleep(200); } catch(InterruptedException e) {}
-    if (p1 != null) p1.close();
-    if (p2 != null) p2.close();
-}
+    /** Archivio delle partite finite (--archive=cartella), leggibile con java F4Archive. */
+    private void openArchive() {
+        String dir = opts.get("archive");
+        if (dir == null) return;
+        try {
+            archive = new F4Archive.Writer(Paths.get(dir),
+                    Integer.parseInt(opts.getOrDefault("archive-level", "6")),
+                    Long.parseLong(opts.getOrDefault("archive-flush-ms", "10000")), this::warn);
+        } catch (IOException | RuntimeException e) {
+            warn("Archivio non disponibile: " + e.getMessage());
+            return;
+        }
+        // Il blocco in costruzione si scrive anche all'uscita
+        Runtime.getRuntime().addShutdownHook(new Thread(archive::close, "archive-shutdown"));
+    }
 
-        } catch (IOException e) {
-            log("Errore Server: " + e.getMessage());
+    F4Archive.Writer archive() { return archive; }
+
+    private int rating(Player p) {
+        return ratings != null ? ratings.rating(p.name) : RatingStore.START;
+    }
+
+    /** Esito di una partita finita con WIN o DRAW, dal punto di vista del primo giocatore. */
+    void matchResult(Match m, double score1) {
+        if (ratings != null && !m.name1.equals(m.name2)) ratings.record(m.name1, m.name2, score1);
+    }
+
+    private void startMetrics() {
+        String port = opts.get("metrics-port");
+        if (port == null) return;
+        try {
+            metrics.serve(this, Integer.parseInt(port));
+            log("Metriche su http://127.0.0.1:" + port + "/metrics");
+        } catch (IOException | RuntimeException e) {
+            warn("Metriche non disponibili: " + e.getMessage());
         }
     }
 
-    private Player acceptPlayer(char symbol) throws IOException {
-        Socket s = serverSocket.accept();
-        Player p = new Player(s, symbol);
-        log("Connesso: " + p.name);
-        return p;
-    }
-
-    private void playMatch() {
-        Player current = p1;
-        Player other = p2;
-        boolean gameRunning = true;
-
-        while (gameRunning) {
-            try {
-                current.send("YOUR_TURN");
-                other.send("WAIT_TURN");
-
-                String line = current.in.readLine();
-                if (line == null) throw new IOException("Client disconnected");
-
-                if (line.startsWith("MOVE")) {
-                    int col = Integer.parseInt(line.split(" ")[1]);
-                    if (isValidMove(col)) {
-                        int row = dropToken(col, current.symbol);
-
-                        SwingUtilities.invokeLater(boardPanel::repaint);
-                        log(current.name + " -> " + col);
-
-                        broadcast("MOVED " + row + " " + col + " " + current.symbol);
-
-                        if (checkWin(row, col, current.symbol)) {
-                            broadcast("WIN " + current.name);
-                            log("Vittoria: " + current.name);
-                            gameRunning = false;
-                        } else if (isBoardFull()) {
-                            broadcast("DRAW");
-                            log("Pareggio");
-                            gameRunning = false;
-                        } else {
-                            Player temp = current;
-                            current = other;
-                            other = temp;
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                log("Disconnessione in gioco: " + e.getMessage());
-                broadcast("EXIT_OPPONENT_LEFT");
-                gameRunning = false;
+    int activeMatchCount() { return activeMatches.get(); }
+
+    int lobbySize() { return matchmaker.size(); }
+
+    int port() { return port; }
+
+    Match watchedMatch() { return watched; }
+
+    /**
+     * Se p aveva una partita in corso prima del riavvio lo rimette al suo posto.
+     * Un posto con token va solo a chi lo presenta: il RESUME token (resume,
+     * dal journal) o "SEAT token" per chi arriva dal router con una partita
+     * spostata qui. Chi ha il token riprende il nome che aveva; senza token
+     * (ripresa spenta) conta il nome con cui si era presentato.
+     */
+    private boolean resumeSeat(Player p, String resume) {
+        String seat = p.name.startsWith("SEAT ") ? p.name.substring(5) : null;
+        String token = seat != null ? seat : resume;
+        Journal.Saved s = null;
+        synchronized (resumable) {
+            for (Journal.Saved r : resumable) {
+                if (r.p1 == null && (r.token1 != null ? r.token1.equals(token) : token == null && r.name1.equals(p.name))) { r.p1 = p; s = r; break; }
+                if (r.p2 == null && (r.token2 != null ? r.token2.equals(token) : token == null && r.name2.equals(p.name))) { r.p2 = p; s = r; break; }
+            }
+            if (s == null) {
+                if (seat == null) return false;
+                p.close();
+                return true;
             }
+            if (s.p1 != null && s.p2 != null) resumable.remove(s);
         }
+        boolean red = s.p1 == p;
+        if (token != null) p.name = red ? s.name1 : s.name2;
+        p.symbol = red ? s.sym1 : s.sym2;
+        if (!s.imported) p.sendConfig(s.rows, s.cols, p.symbol, red);
+        log("Riconnesso: " + p.name + " (partita #" + s.id + ")");
+        if (s.p1 == null || s.p2 == null) return true;
+
+        Match m = new Match(this, s.id, s.p1, s.p2, s.board);
+        liveMatches.put(m.id, m);
+        watched = m;
+        activeMatches.incrementAndGet();
+        metrics.matchesStarted.increment();
+        m.resume(!s.imported);
+        return true;
     }
 
-    private void broadcast(String msg) {
-        if (p1 != null) p1.send(msg);
-        if (p2 != null) p2.send(msg);
+    /** Le partite del journal non riprese in tempo si chiudono. */
+    private void expireResumes() {
+        List<Journal.Saved> expired = new ArrayList<>();
+        synchronized (resumable) {
+            for (Journal.Saved s : resumable) if (!s.imported) expired.add(s);
+            resumable.removeAll(expired);
+        }
+        for (Journal.Saved s : expired) expire(s);
+        if (!expired.isEmpty()) log("Journal: " + expired.size() + " partite non riprese");
     }
 
-    private boolean isValidMove(int c) { return c >= 0 && c < cols && board[0][c] == ' '; }
-    private int dropToken(int c, char s) {
-        for (int r = rows - 1; r >= 0; r--) {
-            if (board[r][c] == ' ') { board[r][c] = s; return r; }
-        } return -1;
+    /** Partita non ripresa, gia' tolta da resumable: chi si era gia' riconnesso viene avvisato. */
+    private void expire(Journal.Saved s) {
+        if (journal != null && !s.imported) journal.ended(s.id);
+        for (Player p : new Player[] {s.p1, s.p2}) {
+            if (p == null) continue;
+            p.sendOp(F4Proto.EXIT_OPPONENT_LEFT);
+            p.close();
+        }
     }
-    private boolean isBoardFull() { for(int c=0; c<cols; c++) if(board[0][c]==' ') return false; return true; }
-    private boolean checkWin(int r, int c, char s) {
-        return checkDir(r,c,s,1,0) || checkDir(r,c,s,0,1) || checkDir(r,c,s,1,1) || checkDir(r,c,s,1,-1);
+
+    /** Partita arrivata da un altro nodo: aspetta i giocatori (SEAT token) fino a RESUME_MS. */
+    void imported(Journal.Saved s) {
+        synchronized (resumable) {
+            resumable.add(s);
+        }
+        timers.schedule(RESUME_MS, () -> {
+            synchronized (resumable) {
+                if (!resumable.remove(s)) return;
+            }
+            log("Partita #" + s.id + " non ripresa");
+            expire(s);
+        });
     }
-    private boolean checkDir(int r, int c, char s, int dr, int dc) {
-        int cnt=0;
-        for(int i=-3; i<=3; i++) {
-            int nr=r+i*dr, nc=c+i*dc;
-            if(nr>=0 && nr<rows && nc>=0 && nc<cols && board[nr][nc]==s) {
-                cnt++; if(cnt==4) return true;
-            } else cnt=0;
-        } return false;
+
+    int nextMatchId() { return matchIds.incrementAndGet(); }
+
+    /** Token nuovo per un posto di m (vedi Match.reattach). */
+    String newSeat(Match m) {
+        String t;
+        do t = Long.toHexString(seatRandom.nextLong() | Long.MIN_VALUE); while (seats.putIfAbsent(t, m) != null);
+        return t;
     }
 
-    private void animateLabels() {
-        dotCount = (dotCount + 1) % 4;
-        String dots = ".".repeat(dotCount);
-        if (p1 == null) lblP1.setText("Player 1: Scanning" + dots);
-        if (p2 == null) lblP2.setText("Player 2: Scanning" + dots);
+    /**
+     * Hello "RESUME token mosse nome": chi ha perso la connessione torna al suo
+     * posto. Se il token non vale piu' (per esempio dopo un riavvio) si prova
+     * la ripresa dal journal con il nome.
+     */
+    private void reconnect(Player p) {
+        String[] f = p.name.split(" ", 4);
+        Match m = f.length >= 3 ? seats.get(f[1]) : null;
+        int seen = -1;
+        try {
+            if (m != null) seen = Integer.parseInt(f[2]);
+        } catch (NumberFormatException e) {
+            m = null;
+        }
+        if (m == null || !m.reattach(p, f[1], seen)) {
+            if (f.length == 4) {
+                p.name = f[3];
+                if (resumeSeat(p, f[1])) return;
+            }
+            log("Ripresa rifiutata");
+            p.send(F4Proto.RESUME_FAILED);
+            p.close();
+        }
     }
 
-    private void log(String s) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append(s + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
+    Collection<Match> liveMatches() { return liveMatches.values(); }
+
+    /** Toglie dalla coda chi aspetta un avversario e lo passa a out. */
+    void shedLobby(Consumer<Player> out) {
+        matchmaker.drain(p -> {
+            p.queued = null;
+            out.accept(p);
         });
     }
 
-    private void drawBoard(Graphics g) {
-        int w = boardPanel.getWidth();
-        int h = boardPanel.getHeight();
-        int cw = w/cols;
-        int ch = h/rows;
-
-        Graphics2D g2 = (Graphics2D) g;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    /**
+     * Factory dei virtual thread, ottenuta via reflection per compilare anche
+     * su JDK che non li hanno; null se la JVM corrente non li supporta.
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> b = Class.forName("java.lang.Thread$Builder");
+            builder = b.getMethod("name", String.class, long.class).invoke(builder, "conn-", 0L);
+            return (ThreadFactory) b.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 
-        g.setColor(new Color(0, 50, 150));
-        g.fillRect(0, 0, cols*cw, rows*ch);
+    /** Nuova connessione, prima del nome: chi non lo manda entro handshakeMs viene chiuso. */
+    void accepted(Player p) {
+        if (handshakeMs <= 0) return;
+        p.timer = timers.schedule(handshakeMs, () -> {
+            if (p.name != null) return;
+            log("Handshake scaduto");
+            p.close();
+        });
+    }
 
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                char s = board[r][c];
-                if (s == sym1) g.setColor(Color.RED);
-                else if (s == sym2) g.setColor(Color.YELLOW);
-                else g.setColor(Color.WHITE);
+    /**
+     * Chiude chi non scrive da idleMs, a meno che non stia aspettando per un
+     * buon motivo: i giocatori (in coda, in partita, dove vale l'orologio, o in
+     * attesa della ripresa) e gli spettatori. Restano i client di analisi.
+     * Ogni connessione ha una sola scadenza, che si riarma quando scatta.
+     */
+    private void armIdle(Player p, long delayMs) {
+        p.timer = timers.schedule(delayMs, () -> {
+            if (p.closed) return;
+            long quiet = (System.nanoTime() - p.lastInput) / 1_000_000;
+            boolean waiting = !p.analysisOnly || p.watching != null;
+            if (waiting || quiet < idleMs) {
+                armIdle(p, waiting ? idleMs : idleMs - quiet);
+                return;
+            }
+            log("Connessione inattiva chiusa: " + p.name);
+            p.close();
+        });
+    }
 
-                int padding = 5;
-                int ovalX = c*cw + padding;
-                int ovalY = r*ch + padding;
-                int ovalW = cw - padding*2;
-                int ovalH = ch - padding*2;
+    void onConnect(Player p) {
+        if (p.timer != null) p.timer.cancel();
+        p.lastInput = System.nanoTime();
+        if (idleMs > 0) armIdle(p, idleMs);
+        // Un client di sola analisi manda subito una richiesta al posto del nome
+        if (p.name.startsWith("ANALYZE ")) {
+            String first = p.name;
+            p.name = "analisi";
+            p.analysisOnly = true;
+            analysis.submit(p, first);
+            return;
+        }
+        // Spettatore: "WATCH" per l'ultima partita iniziata, "WATCH <id>" per una precisa
+        if (p.name.equals("WATCH") || p.name.startsWith("WATCH ")) {
+            watch(p);
+            return;
+        }
+        if (p.name.startsWith("NODE ")) {
+            if (router == null || !router.attach(p)) p.close();
+            return;
+        }
+        if (binaryProto) p.send(F4Proto.OFFER);
+        if (p.name.startsWith(F4Proto.RESUME + " ")) {
+            reconnect(p);
+            return;
+        }
+        log("Connesso: " + p.name);
+        if (resumeSeat(p, null)) return;
+        p.queued = matchmaker.join(p, rating(p));
+    }
 
-                g.fillOval(ovalX, ovalY, ovalW, ovalH);
+    private void watch(Player p) {
+        Match m;
+        try {
+            m = p.name.length() > 6 ? liveMatches.get(Integer.parseInt(p.name.substring(6).trim())) : watched;
+        } catch (NumberFormatException e) {
+            m = null;
+        }
+        p.name = "spettatore";
+        p.analysisOnly = true;
+        if (m == null || !liveMatches.containsKey(m.id)) {
+            p.send("WATCH_ERROR partita non trovata");
+            p.close();
+            return;
+        }
+        m.spectators.add(p);
+    }
 
-                if (s != ' ') {
-                    g.setColor(Color.BLACK);
-                    int fontSize = Math.max(16, (int)(ch * 0.5));
-                    Font font = new Font("SansSerif", Font.BOLD, fontSize);
-                    g.setFont(font);
+    void onLine(Player p, String line) {
+        p.lastInput = System.nanoTime();
+        if (p.watching != null) return;
+        if (router != null && router.isControl(p)) { router.onLine(line); return; }
+        if (line.startsWith("ANALYZE ")) { analysis.submit(p, line); return; }
+        if (binaryProto && line.equals(F4Proto.ACCEPT)) { p.enableBinary(); return; }
+        Match m = p.match;
+        if (m != null) m.onLine(p, line);
+    }
 
-                    FontMetrics fm = g.getFontMetrics();
-                    Rectangle2D bounds = fm.getStringBounds(String.valueOf(s), g);
+    void onFrame(Player p, F4Proto.Frame f) {
+        p.lastInput = System.nanoTime();
+        if (f.op == F4Proto.TEXT) { onLine(p, f.text); return; }
+        Match m = p.match;
+        if (m != null && f.op == F4Proto.MOVE) m.onMove(p, f.a);
+    }
 
-                    int textX = ovalX + (ovalW - (int)bounds.getWidth()) / 2;
-                    int textY = ovalY + (ovalH - (int)bounds.getHeight()) / 2 + fm.getAscent();
+    void onDisconnect(Player p) {
+        if (p.timer != null) p.timer.cancel();
+        if (p.watching != null) { p.watching.remove(p); return; }
+        Match m = p.match;
+        if (m != null) m.onDisconnect(p);
+        else if (dropSeat(p)) return;
+        else if (!p.analysisOnly && p.queued != null) matchmaker.cancel(p.queued);
+    }
 
-                    g.drawString(String.valueOf(s), textX, textY);
-                }
+    /** Chi aspettava la ripresa della sua partita se n'e' andato: il posto torna libero. */
+    private boolean dropSeat(Player p) {
+        synchronized (resumable) {
+            for (Journal.Saved r : resumable) {
+                if (r.p1 == p) { r.p1 = null; return true; }
+                if (r.p2 == p) { r.p2 = null; return true; }
             }
         }
+        return false;
     }
 
-    class Player {
-        Socket s;
-        PrintWriter out;
-        BufferedReader in;
-        String name;
-        char symbol;
-        Player(Socket s, char sym) throws IOException {
-            this.s = s;
-            this.symbol = sym;
-            out = new PrintWriter(s.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(s.getInputStream()));
-            String n = in.readLine();
-            name = (n!=null && !n.isEmpty()) ? n : "Unknown";
+    /** Una coppia dal Matchmaker: a aspettava da piu' tempo e muove per primo. */
+    private void startMatch(Player a, Player b) {
+        // Uno dei due se n'e' andato mentre aspettava: l'altro torna in coda
+        if (a.closed || b.closed) {
+            if (!a.closed) a.queued = matchmaker.join(a, rating(a));
+            if (!b.closed) b.queued = matchmaker.join(b, rating(b));
+            return;
         }
-        void send(String m) { out.println(m); }
-        void close() { try { s.close(); } catch(Exception e){} }
+        a.symbol = sym1;
+        a.sendConfig(rows, cols, sym1, true);
+        b.symbol = sym2;
+        b.sendConfig(rows, cols, sym2, false);
+
+        Match m = new Match(this, matchIds.incrementAndGet(), a, b, rows, cols);
+        liveMatches.put(m.id, m);
+        watched = m;
+        activeMatches.incrementAndGet();
+        metrics.matchesStarted.increment();
+        m.start();
     }
-}
\ No newline at end of file
+
+    void matchEnded(Match m) {
+        // I token restano validi ancora resumeMs: chi torna dopo la fine riceve l'esito
+        if (m.token1 != null) {
+            timers.schedule(resumeMs, () -> {
+                seats.remove(m.token1, m);
+                seats.remove(m.token2, m);
+            });
+        }
+        liveMatches.remove(m.id);
+        activeMatches.decrementAndGet();
+        metrics.matchesFinished.increment();
+    }
+
+    /** Una mossa giocata: a livello debug si registrano solo quelle della partita osservata. */
+    void matchUpdated(Match m, Player p, int col) {
+        if (m != watched || !logger.enabled(Log.DEBUG)) return;
+        logger.log(Log.DEBUG, p.name + " -> " + col);
+    }
+
+    void log(String s) {
+        logger.log(Log.INFO, s);
+    }
+
+    void warn(String s) {
+        logger.log(Log.WARN, s);
+    }
+
+    Log logger() { return logger; }
+}
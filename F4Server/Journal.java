@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Journal delle partite (write-ahead log): file a segmenti di dimensione fissa,
+ * mappati in memoria e scritti solo in coda.
+ *
+ * Record: lunghezza int | CRC32C int | tipo byte | id partita int | campi
+ * <pre>
+ *   MATCH  righe short | colonne short | sim1 char | sim2 char | nome1 | nome2 | token1 | token2 | celle
+ *          (stato completo: all'inizio la board e' vuota, poi serve per la compattazione)
+ *   MOVE   colonna short | riga short | giocatore byte
+ *   END
+ * </pre>
+ * I nomi (quelli con cui i giocatori si sono presentati) e i token sono
+ * lunghezza short + UTF-8, le celle un byte ciascuna (0 vuota, 1 e 2 i
+ * giocatori) riga per riga dall'alto. I token sono i segreti dei posti per la
+ * ripresa (vedi Match.reattach), vuoti se e' spenta: dopo un riavvio il posto
+ * va a chi presenta il token, non a chi ha lo stesso nome. Una lunghezza 0
+ * segna la fine dei dati del segmento.
+ *
+ * Scrivere in un file mappato basta a sopravvivere alla morte del processo: le
+ * pagine restano nella page cache. Contro un crash della macchina serve il
+ * force(), che un thread a parte fa ogni syncMs per tutte le scritture
+ * accumulate (group commit): nel caso peggiore si perdono gli ultimi syncMs di
+ * mosse, ma nessuna mossa aspetta il disco.
+ *
+ * All'avvio si rileggono i segmenti e le partite senza END tornano come Saved,
+ * pronte per essere riprese; poi si riparte da un segmento nuovo. Un segmento
+ * viene cancellato quando nessuna partita in corso ha record in esso. Se una
+ * partita lunga tiene in vita troppi segmenti, il suo stato viene riscritto in
+ * coda (record MATCH) e i segmenti vecchi si possono cancellare.
+ */
+class Journal {
+    private static final byte MATCH = 1, MOVE = 2, END = 3;
+    private static final int HEADER = 8;
+
+    /** Partita trovata nel journal senza END: attende che i giocatori si riconnettano. */
+    static final class Saved {
+        final int id, rows, cols;
+        final char sym1, sym2;
+        final String name1, name2;
+        final F4Board board;
+        // Giocatori gia' riconnessi, gestiti dal server
+        Player p1, p2;
+        // Segreti dei posti: SEAT token per una partita arrivata da un altro nodo (vedi RouterLink),
+        // RESUME token per una recuperata dal journal; senza token i posti si riprendono con il nome
+        String token1, token2;
+        boolean imported;
+
+        Saved(int id, int rows, int cols, char sym1, char sym2, String name1, String name2, F4Board board) {
+            this.id = id;
+            this.rows = rows;
+            this.cols = cols;
+            this.sym1 = sym1;
+            this.sym2 = sym2;
+            this.name1 = name1;
+            this.name2 = name2;
+            this.board = board;
+        }
+    }
+
+    private static final class Segment {
+        final long seq;
+        final Path path;
+        final FileChannel ch;
+        final MappedByteBuffer buf;
+
+        Segment(long seq, Path path, FileChannel ch, MappedByteBuffer buf) {
+            this.seq = seq;
+            this.path = path;
+            this.ch = ch;
+            this.buf = buf;
+        }
+    }
+
+    /** Una partita in corso: il primo segmento che le serve e chi ne conosce lo stato (Match o Saved). */
+    private static final class Live {
+        volatile long firstSeq;
+        volatile Object owner;
+    }
+
+    private final F4Server server;
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long syncMs;
+
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final Map<Integer, Live> live = new ConcurrentHashMap<>();
+    private final List<Saved> recovered = new ArrayList<>();
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer rec = ByteBuffer.allocate(256);
+    private Segment head;
+    private boolean dirty;
+    private boolean failed;
+    private int maxId;
+
+    Journal(F4Server server, Path dir, int segmentBytes, long maxBytes, long syncMs) throws IOException {
+        this.server = server;
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+        this.syncMs = syncMs;
+        Files.createDirectories(dir);
+
+        List<Path> old = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "f4-*.wal")) {
+            for (Path p : ds) old.add(p);
+        }
+        old.sort(Comparator.naturalOrder());
+        Map<Integer, Saved> open = new LinkedHashMap<>();
+        long lastSeq = 0;
+        for (Path p : old) {
+            lastSeq = Math.max(lastSeq, seqOf(p));
+            replay(p, open);
+        }
+        recovered.addAll(open.values());
+
+        synchronized (this) {
+            rollover(lastSeq + 1);
+            // Lo stato recuperato si riscrive subito nel segmento nuovo: i vecchi non servono piu'
+            for (Saved s : recovered) {
+                Live l = new Live();
+                l.owner = s;
+                live.put(s.id, l);
+                logMatch(s.id, s.rows, s.cols, s.sym1, s.sym2, s.name1, s.name2, s.token1, s.token2, s.board);
+            }
+            head.buf.force();
+        }
+        for (Path p : old) Files.deleteIfExists(p);
+
+        Thread t = new Thread(this::syncLoop, "journal-sync");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Partite da riprendere trovate all'avvio. */
+    List<Saved> recovered() { return recovered; }
+
+    /** Id piu' alto visto nel journal: i nuovi id partono da qui. */
+    int maxId() { return maxId; }
+
+    // --- scrittura ---
+
+    void started(Match m) {
+        Live l = new Live();
+        l.owner = m;
+        synchronized (this) {
+            l.firstSeq = head.seq;
+            live.put(m.id, l);
+            logMatch(m.id, m.rows, m.cols, m.p1.symbol, m.p2.symbol, m.name1, m.name2, m.token1, m.token2, m.board);
+        }
+    }
+
+    /**
+     * Una partita recuperata (o arrivata da un altro nodo) e' ripartita: d'ora
+     * in poi il suo stato e' nel Match. Ha token nuovi, quindi lo stato completo
+     * si riscrive come per una partita nuova.
+     */
+    void resumed(Match m) {
+        started(m);
+    }
+
+    synchronized void moved(int id, int col, int row, int player) {
+        ByteBuffer b = begin(MOVE, id, 5);
+        b.putShort((short) col).putShort((short) row).put((byte) player);
+        commit();
+    }
+
+    void ended(int id) {
+        synchronized (this) {
+            begin(END, id, 0);
+            commit();
+        }
+        live.remove(id);
+    }
+
+    /** Stato completo di una partita; con il lock della partita se e' in corso. */
+    synchronized void logMatch(int id, int rows, int cols, char sym1, char sym2, String name1, String name2,
+                               String token1, String token2, F4Board board) {
+        byte[] n1 = name1.getBytes(StandardCharsets.UTF_8), n2 = name2.getBytes(StandardCharsets.UTF_8);
+        byte[] t1 = token1 != null ? token1.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] t2 = token2 != null ? token2.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer b = begin(MATCH, id, 16 + n1.length + n2.length + t1.length + t2.length + rows * cols);
+        b.putShort((short) rows).putShort((short) cols).putChar(sym1).putChar(sym2);
+        b.putShort((short) n1.length).put(n1).putShort((short) n2.length).put(n2);
+        b.putShort((short) t1.length).put(t1).putShort((short) t2.length).put(t2);
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++) b.put((byte) (board.cell(r, c) + 1));
+        commit();
+        Live l = live.get(id);
+        if (l != null) l.firstSeq = head.seq;
+    }
+
+    private ByteBuffer begin(byte type, int id, int size) {
+        if (rec.capacity() < 5 + size) rec = ByteBuffer.allocate(5 + size);
+        rec.clear();
+        return rec.put(type).putInt(id);
+    }
+
+    private void commit() {
+        if (failed) return;
+        int n = rec.position();
+        try {
+            if (head.buf.remaining() < HEADER + n + 4) rollover(head.seq + 1);
+            if (head.buf.remaining() < HEADER + n + 4) throw new IOException("Record piu' grande di un segmento");
+        } catch (IOException e) {
+            failed = true;
+            server.warn("Journal disattivato: " + e.getMessage());
+            return;
+        }
+        crc.reset();
+        crc.update(rec.array(), 0, n);
+        // La lunghezza per ultima: un record a meta' resta invisibile alla rilettura
+        int at = head.buf.position();
+        head.buf.position(at + 4);
+        head.buf.putInt((int) crc.getValue()).put(rec.array(), 0, n);
+        head.buf.putInt(at, n);
+        dirty = true;
+    }
+
+    private void rollover(long seq) throws IOException {
+        if (head != null) head.buf.force();
+        Path p = dir.resolve(String.format("f4-%016d.wal", seq));
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        head = new Segment(seq, p, ch, buf);
+        segments.addLast(head);
+    }
+
+    // --- group commit e compattazione ---
+
+    private void syncLoop() {
+        long lastCompact = 0;
+        while (true) {
+            try {
+                Thread.sleep(syncMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            MappedByteBuffer toSync = null;
+            int count;
+            synchronized (this) {
+                if (dirty) {
+                    toSync = head.buf;
+                    dirty = false;
+                }
+                count = segments.size();
+            }
+            if (toSync != null) toSync.force();
+            long now = System.currentTimeMillis();
+            if (count > 1 && now - lastCompact >= 1000) {
+                lastCompact = now;
+                compact(count);
+            }
+        }
+    }
+
+    private void compact(int count) {
+        long oldest;
+        synchronized (this) {
+            oldest = segments.peekFirst().seq;
+        }
+        // Troppi segmenti: le partite che tengono in vita il piu' vecchio riscrivono il loro stato in coda
+        if (count > maxSegments) {
+            for (Live l : live.values()) {
+                if (l.firstSeq > oldest) continue;
+                Object o = l.owner;
+                if (o instanceof Match) {
+                    ((Match) o).checkpoint();
+                } else {
+                    Saved s = (Saved) o;
+                    synchronized (this) {
+                        // Nel frattempo la partita puo' essere ripartita: allora lo stato e' nel Match
+                        if (l.owner == s) logMatch(s.id, s.rows, s.cols, s.sym1, s.sym2, s.name1, s.name2, s.token1, s.token2, s.board);
+                    }
+                }
+            }
+        }
+        List<Segment> drop = new ArrayList<>();
+        synchronized (this) {
+            long keep = head.seq;
+            for (Live l : live.values()) keep = Math.min(keep, l.firstSeq);
+            while (segments.peekFirst().seq < keep) drop.add(segments.pollFirst());
+        }
+        for (Segment s : drop) {
+            try {
+                s.ch.close();
+                Files.deleteIfExists(s.path);
+            } catch (IOException e) {
+                server.warn("Journal: impossibile cancellare " + s.path.getFileName());
+            }
+        }
+    }
+
+    // --- rilettura ---
+
+    private void replay(Path p, Map<Integer, Saved> open) throws IOException {
+        ByteBuffer b;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        CRC32C check = new CRC32C();
+        while (b.remaining() >= HEADER) {
+            int len = b.getInt();
+            int sum = b.getInt();
+            if (len <= 0 || len > b.remaining()) break;
+            check.reset();
+            ByteBuffer r = b.slice();
+            r.limit(len);
+            check.update(r.duplicate());
+            // Record scritto a meta' (crash durante l'append): il resto del segmento non vale
+            if ((int) check.getValue() != sum) break;
+            b.position(b.position() + len);
+            apply(r, open);
+        }
+    }
+
+    private void apply(ByteBuffer r, Map<Integer, Saved> open) {
+        byte type = r.get();
+        int id = r.getInt();
+        maxId = Math.max(maxId, id);
+        if (type == MATCH) {
+            int rows = r.getShort(), cols = r.getShort();
+            char s1 = r.getChar(), s2 = r.getChar();
+            String n1 = string(r), n2 = string(r);
+            // I record scritti prima dei token hanno subito le celle
+            String t1 = null, t2 = null;
+            if (r.remaining() > rows * cols) {
+                t1 = string(r);
+                t2 = string(r);
+            }
+            F4Board board = new F4Board(rows, cols);
+            // Le pedine si rimettono colonna per colonna dal basso
+            for (int c = 0; c < cols; c++) {
+                for (int row = rows - 1; row >= 0; row--) {
+                    int v = r.get(r.position() + row * cols + c);
+                    if (v == 0) break;
+                    board.drop(c, v - 1);
+                }
+            }
+            Saved s = new Saved(id, rows, cols, s1, s2, n1, n2, board);
+            s.token1 = t1 == null || t1.isEmpty() ? null : t1;
+            s.token2 = t2 == null || t2.isEmpty() ? null : t2;
+            open.put(id, s);
+        } else if (type == MOVE) {
+            Saved s = open.get(id);
+            if (s == null) return;
+            int col = r.getShort(), row = r.getShort(), player = r.get();
+            if (!s.board.canPlay(col) || s.board.drop(col, player) != row) {
+                open.remove(id); // journal incoerente: la partita non si puo' riprendere
+                return;
+            }
+            // Vittoria o pareggio scritti prima del crash ma senza END
+            if (s.board.lastMoveWins() || s.board.isFull()) open.remove(id);
+        } else if (type == END) {
+            open.remove(id);
+        }
+    }
+
+    private static String string(ByteBuffer r) {
+        byte[] a = new byte[r.getShort()];
+        r.get(a);
+        return new String(a, StandardCharsets.UTF_8);
+    }
+
+    private static long seqOf(Path p) {
+        String n = p.getFileName().toString();
+        return Long.parseLong(n.substring(3, n.length() - 4));
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Log asincrono: chi scrive mette il messaggio in un ring buffer di capacita'
+ * fissa e prosegue; un thread a parte lo svuota ogni FLUSH_MS e scrive tutto
+ * il lotto con una sola write (su file o sullo standard output).
+ *
+ * Il ring e' la coda limitata di Vyukov: ogni cella ha un numero di sequenza
+ * che dice se e' libera per il produttore o pronta per il consumatore, cosi'
+ * nessuno prende lock. A buffer pieno il messaggio si scarta e si conta: il
+ * log non deve mai rallentare le partite. I messaggi sotto il livello minimo
+ * si scartano prima ancora di entrare nel buffer.
+ */
+class Log {
+    static final int DEBUG = 0, INFO = 1, WARN = 2, ERROR = 3;
+    private static final String[] NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+    private static final long FLUSH_MS = 20;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final int level;
+    private final int mask;
+    private final String[] messages;
+    private final long[] times;
+    private final byte[] levels;
+    private final AtomicLongArray seq;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final OutputStream out;
+    private final Thread writer;
+
+    // Solo il thread di scrittura
+    private long head;
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream(8192);
+
+    /** Riceve le righe di ogni lotto, gia' formattate (il monitor Swing, se c'e'). */
+    volatile Consumer<List<String>> viewer;
+
+    Log(int level, int capacity, OutputStream out) {
+        this.level = level;
+        int size = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+        mask = size - 1;
+        messages = new String[size];
+        times = new long[size];
+        levels = new byte[size];
+        seq = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) seq.set(i, i);
+        this.out = out;
+        writer = new Thread(this::writeLoop, "log");
+        writer.setDaemon(true);
+        writer.start();
+        // Quello che resta nel buffer si scrive anche all'uscita
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-shutdown"));
+    }
+
+    static int parseLevel(String s) {
+        for (int i = 0; i < NAMES.length; i++) if (NAMES[i].equalsIgnoreCase(s)) return i;
+        throw new IllegalArgumentException("Livello di log sconosciuto: " + s);
+    }
+
+    boolean enabled(int l) {
+        return l >= level;
+    }
+
+    void log(int l, String msg) {
+        if (l < level) return;
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long diff = seq.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.increment();
+                return;
+            } else {
+                pos = tail.get();
+            }
+        }
+        int i = (int) pos & mask;
+        messages[i] = msg;
+        times[i] = System.currentTimeMillis();
+        levels[i] = (byte) l;
+        seq.set(i, pos + 1);
+    }
+
+    private void writeLoop() {
+        while (true) {
+            drain();
+            LockSupport.parkNanos(FLUSH_MS * 1_000_000);
+        }
+    }
+
+    /** Svuota il ring e scrive il lotto; synchronized solo contro l'hook di uscita. */
+    private synchronized void drain() {
+        Consumer<List<String>> v = viewer;
+        List<String> lines = v != null ? new ArrayList<>() : null;
+        batch.reset();
+        long lost = dropped.sumThenReset();
+        if (lost > 0) append(WARN, System.currentTimeMillis(), lost + " messaggi di log persi (buffer pieno)", lines);
+        while (true) {
+            int i = (int) head & mask;
+            if (seq.get(i) != head + 1) break;
+            String msg = messages[i];
+            messages[i] = null;
+            append(levels[i], times[i], msg, lines);
+            seq.set(i, head + mask + 1);
+            head++;
+        }
+        if (batch.size() == 0) return;
+        try {
+            batch.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            // disco pieno o stdout chiuso: i messaggi si perdono, il server continua
+        }
+        if (v != null) v.accept(lines);
+    }
+
+    private void append(int l, long time, String msg, List<String> lines) {
+        String line = TIME.format(Instant.ofEpochMilli(time)) + " " + NAMES[l] + " " + msg;
+        byte[] b = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        batch.write(b, 0, b.length);
+        if (lines != null) lines.add(line);
+    }
+}
@@ -0,0 +1,513 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Una singola partita: ogni istanza ha la propria board e i propri giocatori,
+ * cosi' il server puo' farne girare molte in parallelo. La partita non ha un
+ * thread proprio: avanza a ogni riga ricevuta dal trasporto (onLine).
+ * Si usa un ReentrantLock e non synchronized perche' dentro la sezione critica
+ * si scrive sui socket, e un virtual thread bloccato in un synchronized
+ * resterebbe agganciato al suo carrier thread.
+ */
+class Match {
+    private final F4Server server;
+    private final Journal journal;
+    private final F4Archive.Writer archive;
+    private final Metrics metrics;
+    final int id;
+    // Cambiano solo quando un giocatore riprende il suo posto con una connessione nuova (reattach)
+    Player p1, p2;
+    final int rows, cols;
+    final F4Board board;
+    // I nomi con cui i giocatori si sono presentati, prima della risoluzione dei conflitti: contano per i punteggi
+    final String name1, name2;
+
+    private Player current, other;
+    private boolean finished;
+    // Spostata su un altro nodo: i giocatori non vanno chiusi, li ricollega il router
+    private boolean migrated;
+    private int holds;
+    private long turnSentAt;
+    // Orologio: tempo rimasto a p1 e p2 (se clockMs > 0), inizio del turno e la sua scadenza
+    private final long[] clock = new long[2];
+    private long turnStartedAt;
+    private TimerWheel.Timeout turnTimer;
+    // Una scadenza per posto, riarmata a ogni turno senza allocare, e l'istante in cui scade
+    private final TimerWheel.Timeout[] turnTimers = new TimerWheel.Timeout[2];
+    private final long[] turnDeadline = new long[2];
+    private String result;
+    // Le mosse per l'archivio, se c'e'
+    private final F4Archive.Game record;
+    // Posti per la ripresa dopo una caduta della connessione (null se --resume-ms=0) e chi manca, in attesa
+    final String token1, token2;
+    private final TimerWheel.Timeout[] away = new TimerWheel.Timeout[2];
+    private final long[] awayUntil = new long[2];
+    // Le mosse nell'ordine in cui i client le hanno ricevute: riga << 16 | colonna << 1 | giocatore
+    private final int[] history;
+    private int historyLen, setup;
+    final Spectators spectators = new Spectators(this);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    Match(F4Server server, int id, Player p1, Player p2, int rows, int cols) {
+        this(server, id, p1, p2, new F4Board(rows, cols));
+    }
+
+    /** Partita che riparte da una board gia' giocata (recuperata dal journal). */
+    Match(F4Server server, int id, Player p1, Player p2, F4Board board) {
+        this.server = server;
+        this.journal = server.journal();
+        this.archive = server.archive();
+        this.metrics = server.metrics;
+        this.id = id;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.name1 = p1.name;
+        this.name2 = p2.name;
+        this.rows = board.rows;
+        this.cols = board.cols;
+        this.board = board;
+        clock[0] = clock[1] = server.clockMs * 1_000_000L;
+        record = archive != null ? new F4Archive.Game(id, rows, cols, p1.symbol, p2.symbol, name1, name2) : null;
+        token1 = server.resumeMs > 0 ? server.newSeat(this) : null;
+        token2 = server.resumeMs > 0 ? server.newSeat(this) : null;
+        history = new int[rows * cols];
+        if (server.moveMs > 0 || server.clockMs > 0) {
+            turnTimers[0] = server.timers.timeout(() -> onTimeout(0));
+            turnTimers[1] = server.timers.timeout(() -> onTimeout(1));
+        }
+    }
+
+    void start() {
+        lock.lock();
+        hold();
+        try {
+            distinctNames();
+            server.log("Partita #" + id + ": " + p1.name + " vs " + p2.name);
+            if (journal != null) journal.started(this);
+            p1.match = this;
+            p2.match = this;
+            p1.sendStart(p2.name, p2.symbol);
+            p2.sendStart(p1.name, p1.symbol);
+            sendTokens();
+
+            current = p1;
+            other = p2;
+            // Uno dei due puo' essersi gia' disconnesso prima di essere agganciato alla partita
+            if (p1.closed || p2.closed) left(p1.closed ? p1 : p2);
+            else beginTurn();
+        } finally {
+            release();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ripresa dopo un riavvio del server: i client ricevono la board come una
+     * serie di MOVED, colonna per colonna dal basso, poi si prosegue dal turno
+     * di chi deve muovere. Senza replay (partita spostata da un altro nodo
+     * attraverso il router) i client hanno gia' tutto e ricevono solo il turno.
+     */
+    void resume(boolean replay) {
+        lock.lock();
+        hold();
+        try {
+            // Dal journal tornano i nomi con cui si erano presentati
+            distinctNames();
+            server.log("Partita #" + id + " ripresa: " + p1.name + " vs " + p2.name);
+            if (journal != null) journal.resumed(this);
+            p1.match = this;
+            p2.match = this;
+            if (replay) {
+                p1.sendStart(p2.name, p2.symbol);
+                p2.sendStart(p1.name, p1.symbol);
+            }
+            for (int c = 0; c < cols; c++) {
+                for (int r = rows - 1; r >= 0; r--) {
+                    int v = board.cell(r, c);
+                    if (v < 0) break;
+                    char sym = v == 0 ? p1.symbol : p2.symbol;
+                    if (replay) {
+                        p1.sendMoved(r, c, sym);
+                        p2.sendMoved(r, c, sym);
+                    }
+                    if (record != null) record.add(c, v);
+                    history[historyLen++] = r << 16 | c << 1 | v;
+                }
+            }
+            setup = historyLen;
+            sendTokens();
+            // L'ordine delle mosse prima del riavvio e' perso: nell'archivio sono la posizione di partenza
+            if (record != null) record.markSetup();
+
+            current = (board.moves() & 1) == 0 ? p1 : p2;
+            other = current == p1 ? p2 : p1;
+            if (p1.closed || p2.closed) left(p1.closed ? p1 : p2);
+            else beginTurn();
+        } finally {
+            release();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Turno nuovo: parte l'orologio di current, che ha moveMs per muovere (o
+     * meno, se gli resta meno tempo sul totale). Le mosse non valide e le
+     * righe sconosciute ripetono solo YOUR_TURN, senza ridare tempo.
+     */
+    private void beginTurn() {
+        nextTurn();
+        turnStartedAt = turnSentAt;
+        long ms = server.moveMs > 0 ? server.moveMs : Long.MAX_VALUE;
+        if (server.clockMs > 0) ms = Math.min(ms, clock[current == p1 ? 0 : 1] / 1_000_000);
+        if (ms == Long.MAX_VALUE) return;
+        int seat = current == p1 ? 0 : 1;
+        turnDeadline[seat] = turnStartedAt + ms * 1_000_000;
+        turnTimer = turnTimers[seat];
+        turnTimer.arm(turnDeadline[seat]);
+    }
+
+    /**
+     * Scadenza del turno del posto seat (0 per p1). Gira sul pool del timer,
+     * quindi puo' arrivare in ritardo: se nel frattempo il giocatore ha mosso
+     * e il suo turno nuovo non e' ancora scaduto non fa nulla. Il tempo corre
+     * anche per chi e' caduto.
+     */
+    private void onTimeout(int seat) {
+        lock.lock();
+        hold();
+        try {
+            Player p = seat == 0 ? p1 : p2;
+            if (finished || p != current || System.nanoTime() - turnDeadline[seat] < 0) return;
+            server.log("Tempo scaduto: " + p.name);
+            p1.sendTimeout(p.name);
+            p2.sendTimeout(p.name);
+            spectators.publishTimeout(p.name);
+            p1.sendWin(other.name);
+            p2.sendWin(other.name);
+            spectators.publishWin(other.name);
+            result = "WIN " + other.name;
+            server.matchResult(this, other == p1 ? 1 : 0);
+            end((other == p1 ? F4Archive.WIN1 : F4Archive.WIN2) | F4Archive.TIMEOUT);
+        } finally {
+            release();
+            lock.unlock();
+        }
+    }
+
+    // Risoluzione conflitto nomi
+    private void distinctNames() {
+        if (p1.name.equals(p2.name)) {
+            p1.name += "1";
+            p2.name += "2";
+        }
+    }
+
+    private void sendTokens() {
+        if (token1 == null) return;
+        p1.send(F4Proto.RESUME_TOKEN + " " + token1);
+        p2.send(F4Proto.RESUME_TOKEN + " " + token2);
+    }
+
+    private void nextTurn() {
+        current.sendOp(F4Proto.YOUR_TURN);
+        other.sendOp(F4Proto.WAIT_TURN);
+        turnSentAt = System.nanoTime();
+    }
+
+    void onLine(Player p, String line) {
+        if (!line.startsWith("MOVE")) {
+            lock.lock();
+            hold();
+            try {
+                if (!finished && p == current) nextTurn();
+            } finally {
+                release();
+                lock.unlock();
+            }
+            return;
+        }
+        int col;
+        try {
+            col = Integer.parseInt(line.split(" ")[1]);
+        } catch (RuntimeException e) {
+            lock.lock();
+            hold();
+            try {
+                if (!finished && (p == p1 || p == p2)) left(p);
+            } finally {
+                release();
+                lock.unlock();
+            }
+            return;
+        }
+        onMove(p, col);
+    }
+
+    void onMove(Player p, int col) {
+        long t0 = System.nanoTime();
+        boolean played = false;
+        lock.lock();
+        hold();
+        try {
+            if (finished || p != current) return;
+            metrics.moveRtt.recordNanos(t0 - turnSentAt);
+            if (!board.canPlay(col)) { nextTurn(); return; }
+            played = true;
+            if (turnTimer != null) turnTimer.cancel();
+            if (server.clockMs > 0) clock[current == p1 ? 0 : 1] -= t0 - turnStartedAt;
+
+            int row = board.drop(col, current == p1 ? 0 : 1);
+            history[historyLen++] = row << 16 | col << 1 | (current == p1 ? 0 : 1);
+            if (journal != null) journal.moved(id, col, row, current == p1 ? 0 : 1);
+            if (record != null) record.add(col, current == p1 ? 0 : 1);
+
+            server.matchUpdated(this, current, col);
+
+            p1.sendMoved(row, col, current.symbol);
+            p2.sendMoved(row, col, current.symbol);
+            spectators.publishMoved(row, col, current.symbol);
+
+            if (board.lastMoveWins()) {
+                p1.sendWin(current.name);
+                p2.sendWin(current.name);
+                spectators.publishWin(current.name);
+                result = "WIN " + current.name;
+                server.log("Vittoria: " + current.name);
+                server.matchResult(this, current == p1 ? 1 : 0);
+                end(current == p1 ? F4Archive.WIN1 : F4Archive.WIN2);
+            } else if (board.isFull()) {
+                broadcast(F4Proto.DRAW);
+                result = "DRAW";
+                server.log("Pareggio");
+                server.matchResult(this, 0.5);
+                end(F4Archive.DRAW);
+            } else {
+                Player temp = current;
+                current = other;
+                other = temp;
+                beginTurn();
+            }
+        } finally {
+            release();
+            lock.unlock();
+            if (played) metrics.moveProcessing.recordNanos(System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Connessione di p caduta. Con i posti attivi la partita aspetta che
+     * torni (reattach) per resumeMs, poi finisce come se fosse uscito; una
+     * connessione gia' sostituita da quella nuova non conta piu'.
+     */
+    void onDisconnect(Player p) {
+        lock.lock();
+        try {
+            if (finished || (p != p1 && p != p2)) return;
+            hold();
+            try {
+                int seat = p == p1 ? 0 : 1;
+                if (token1 == null) {
+                    left(p);
+                } else if (away[seat] == null) {
+                    server.log("Connessione persa: " + p.name + " (partita #" + id + "), posto tenuto");
+                    metrics.disconnects.increment();
+                    (seat == 0 ? p2 : p1).send(F4Proto.OPPONENT_AWAY);
+                    awayUntil[seat] = System.nanoTime() + server.resumeMs * 1_000_000;
+                    away[seat] = server.timers.schedule(server.resumeMs, () -> abandon(seat));
+                }
+            } finally {
+                release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Il giocatore al posto seat non e' tornato in tempo. */
+    private void abandon(int seat) {
+        lock.lock();
+        hold();
+        try {
+            // Una scadenza vecchia, di prima di un ritorno e di una nuova caduta, non conta
+            if (finished || away[seat] == null || System.nanoTime() - awayUntil[seat] < 0) return;
+            away[seat] = null;
+            left(seat == 0 ? p1 : p2);
+        } finally {
+            release();
+            lock.unlock();
+        }
+    }
+
+    /** p se n'e' andato: vince l'altro. Con il lock e hold() di chi chiama. */
+    private void left(Player p) {
+        server.log("Disconnessione in gioco: " + p.name);
+        if (token1 == null) metrics.disconnects.increment();
+        broadcast(F4Proto.EXIT_OPPONENT_LEFT);
+        result = "EXIT_OPPONENT_LEFT";
+        end((p == p1 ? F4Archive.WIN2 : F4Archive.WIN1) | F4Archive.LEFT);
+    }
+
+    /**
+     * np si e' presentato con "RESUME token seen": prende il posto del
+     * giocatore di quel token, anche se la connessione vecchia non risulta
+     * ancora caduta (che viene chiusa). Riceve le mosse da seen in avanti e
+     * il turno, oppure l'esito se la partita e' finita mentre mancava; in un
+     * solo invio. false se la partita e' stata spostata su un altro nodo.
+     */
+    boolean reattach(Player np, String token, int seen) {
+        lock.lock();
+        try {
+            if (migrated) return false;
+            int seat = token.equals(token1) ? 0 : 1;
+            Player old = seat == 0 ? p1 : p2, opp = seat == 0 ? p2 : p1;
+            np.name = old.name;
+            np.symbol = old.symbol;
+            if (seat == 0) p1 = np;
+            else p2 = np;
+            if (current == old) current = np;
+            else if (other == old) other = np;
+            boolean wasAway = away[seat] != null;
+            if (wasAway) {
+                away[seat].cancel();
+                away[seat] = null;
+            }
+            np.match = this;
+            hold();
+            try {
+                np.send(F4Proto.RESUMED + " " + id);
+                // I MOVED gia' ricevuti restano; se il conto non torna si riparte da CONFIG
+                int from = seen >= setup && seen <= historyLen ? seen : 0;
+                if (from == 0 && seen != 0) {
+                    np.sendConfig(rows, cols, np.symbol, seat == 0);
+                    np.sendStart(opp.name, opp.symbol);
+                }
+                for (int i = from; i < historyLen; i++) {
+                    int h = history[i];
+                    np.sendMoved(h >>> 16, (h >>> 1) & 0x7FFF, (h & 1) == 0 ? p1.symbol : p2.symbol);
+                }
+                if (!finished) {
+                    np.sendOp(np == current ? F4Proto.YOUR_TURN : F4Proto.WAIT_TURN);
+                    if (wasAway) opp.send(F4Proto.OPPONENT_BACK);
+                } else if (result.startsWith("WIN ")) {
+                    np.sendWin(result.substring(4));
+                } else {
+                    np.sendOp(result.equals("DRAW") ? F4Proto.DRAW : F4Proto.EXIT_OPPONENT_LEFT);
+                }
+                server.log("Ripreso: " + np.name + " (partita #" + id + ", " + (historyLen - from) + " mosse da rimandare)");
+            } finally {
+                release();
+            }
+            if (old != np) old.close();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** outcome: l'esito per l'archivio (F4Archive.WIN1, DRAW, ...). */
+    private void end(int outcome) {
+        finished = true;
+        if (turnTimer != null) turnTimer.cancel();
+        // Chi manca puo' ancora tornare a leggere l'esito, finche' vale il suo token
+        for (int i = 0; i < 2; i++) {
+            if (away[i] != null) away[i].cancel();
+            away[i] = null;
+        }
+        if (journal != null) journal.ended(id);
+        if (record != null) {
+            record.result = outcome;
+            record.time = System.currentTimeMillis();
+            archive.append(record);
+        }
+        server.log("Chiusura connessioni (" + p1.name + " vs " + p2.name + ")...");
+        spectators.finish();
+        server.matchEnded(this);
+    }
+
+    /**
+     * Ferma la partita per spostarla su un altro nodo (vedi RouterLink), senza
+     * avvisare i giocatori: li ricollega il router. Ritorna lo stato da passare
+     * al nodo nuovo, null se la partita e' gia' finita.
+     */
+    String migrate() {
+        lock.lock();
+        try {
+            if (finished) return null;
+            finished = true;
+            migrated = true;
+            if (turnTimer != null) turnTimer.cancel();
+            for (int i = 0; i < 2; i++) if (away[i] != null) away[i].cancel();
+            if (journal != null) journal.ended(id);
+            server.log("Partita #" + id + " spostata: " + p1.name + " vs " + p2.name);
+            spectators.finish();
+            server.matchEnded(this);
+            return RouterLink.encode(rows, cols, p1.symbol, p2.symbol, name1, name2, board);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Riscrive lo stato nel journal, per la compattazione (vedi Journal). */
+    void checkpoint() {
+        lock.lock();
+        try {
+            if (!finished) journal.logMatch(id, rows, cols, p1.symbol, p2.symbol, name1, name2, token1, token2, board);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Istantanea per uno spettatore nuovo o rimasto indietro: CONFIG, un START
+     * per giocatore, la board (BOARD, riga per riga dall'alto, '.' per le celle
+     * vuote) e l'esito se la partita e' gia' finita. Scritta nel buffer di p,
+     * di cui il chiamante tiene il lock; ritorna la posizione nel registro
+     * degli eventi da cui proseguire.
+     */
+    int snapshot(Player p) {
+        lock.lock();
+        try {
+            ByteBuffer b = p.outBuffer(F4Text.maxSize(p1.name.length() + p2.name.length() + rows * cols + 64));
+            if (b == null) return spectators.position();
+            F4Text.putConfig(b, rows, cols, p1.symbol, true);
+            F4Text.putStart(b, p1.name, p1.symbol);
+            F4Text.putStart(b, p2.name, p2.symbol);
+            b.put((byte) 'B').put((byte) 'O').put((byte) 'A').put((byte) 'R').put((byte) 'D').put((byte) ' ');
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int v = board.cell(r, c);
+                    F4Text.putChars(b, v < 0 ? '.' : v == 0 ? p1.symbol : p2.symbol);
+                }
+            }
+            b.put((byte) '\n');
+            if (result != null) F4Text.putLine(b, result);
+            return spectators.position();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** I messaggi di un turno si accumulano e partono insieme in release. */
+    private void hold() {
+        if (holds++ > 0) return;
+        p1.beginBatch();
+        p2.beginBatch();
+    }
+
+    private void release() {
+        if (--holds > 0) return;
+        p1.endBatch();
+        p2.endBatch();
+        // Chiusura solo dopo aver spedito il turno, altrimenti i messaggi finali andrebbero persi
+        if (finished && !migrated) {
+            p1.close();
+            p2.close();
+        }
+    }
+
+    private void broadcast(int op) {
+        p1.sendOp(op);
+        p2.sendOp(op);
+        spectators.publishOp(op);
+    }
+}
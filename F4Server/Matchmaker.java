@@ -0,0 +1,191 @@
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Coda di attesa per punteggio: chi entra cerca un avversario con un
+ * punteggio vicino, prima nel proprio bucket (BUCKET punti) e poi in quelli
+ * accanto, allargandosi fino alla finestra consentita; se non lo trova
+ * aspetta nel proprio bucket. La finestra cresce con l'attesa (BASE_WINDOW
+ * piu' WINDOW_PER_S al secondo) e oltre MAX_WAIT_MS accetta chiunque: ogni
+ * RETRY_MS chi aspetta ritenta con la finestra aggiornata, sul TimerWheel.
+ *
+ * Niente lock globale: i bucket sono code concorrenti e un'attesa si
+ * prenota con una CAS sul suo stato, cosi' due ingressi contemporanei non
+ * possono prendere lo stesso avversario. Chi prenota si riserva prima se
+ * stesso e poi l'altro; se l'altro e' gia' preso si libera e va avanti.
+ * Le voci prese o annullate si tolgono dalle code quando le si incontra.
+ *
+ * Non sa nulla di socket o partite: T e' chi aspetta e paired riceve le
+ * coppie (prima chi aspettava da piu' tempo). paired gira sul thread di chi
+ * entra o, se la coppia si forma in un ritentativo, su runner: mai sul thread
+ * del timer, che deve solo contare i tick.
+ */
+class Matchmaker<T> {
+    static final int BUCKET = 50, BASE_WINDOW = 100, WINDOW_PER_S = 100;
+    static final long MAX_WAIT_MS = 10_000, RETRY_MS = 100;
+    private static final int WAITING = 0, BUSY = 1, DONE = 2;
+    // Finestra piu' larga di chi aspetta ancora entro MAX_WAIT_MS: puo' superare quella di chi cerca
+    private static final int MAX_REACH = (int) (BASE_WINDOW + WINDOW_PER_S * MAX_WAIT_MS / 1000);
+
+    /** Un'attesa in coda. */
+    static final class Entry<T> {
+        final T who;
+        final int rating;
+        final long since = System.nanoTime();
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Entry(T who, int rating) {
+            this.who = who;
+            this.rating = rating;
+        }
+    }
+
+    private final ConcurrentLinkedDeque<Entry<T>>[] buckets;
+    private final TimerWheel timers;
+    private final Executor runner;
+    private final BiConsumer<T, T> paired;
+    private final LongAdder waiting = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Matchmaker(int maxRating, TimerWheel timers, Executor runner, BiConsumer<T, T> paired) {
+        buckets = new ConcurrentLinkedDeque[maxRating / BUCKET + 1];
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new ConcurrentLinkedDeque<>();
+        this.timers = timers;
+        this.runner = runner;
+        this.paired = paired;
+    }
+
+    /** Ritira e (disconnessione): true se era ancora in attesa, false se nel frattempo e' stata accoppiata. */
+    boolean cancel(Entry<T> e) {
+        while (true) {
+            int s = e.state.get();
+            if (s == DONE) return false;
+            if (s == WAITING && e.state.compareAndSet(WAITING, DONE)) {
+                waiting.decrement();
+                return true;
+            }
+            // BUSY: qualcuno sta decidendo, tra un attimo si sa com'e' andata
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Toglie dalla coda tutti quelli in attesa e li passa a out; chi e' occupato resta. */
+    void drain(Consumer<T> out) {
+        for (ConcurrentLinkedDeque<Entry<T>> q : buckets) {
+            for (Iterator<Entry<T>> it = q.iterator(); it.hasNext(); ) {
+                Entry<T> o = it.next();
+                if (o.state.get() == DONE) {
+                    it.remove();
+                } else if (o.state.compareAndSet(WAITING, DONE)) {
+                    it.remove();
+                    waiting.decrement();
+                    out.accept(o.who);
+                }
+            }
+        }
+    }
+
+    /** In coda adesso (approssimato). */
+    int size() { return (int) waiting.sum(); }
+
+    Entry<T> join(T who, int rating) {
+        Entry<T> e = new Entry<>(who, Math.max(0, Math.min(rating, (buckets.length - 1) * BUCKET)));
+        // Prima si cerca senza essere in coda: nel caso normale l'avversario c'e' gia'
+        e.state.set(BUSY);
+        Entry<T> other = find(e, null);
+        if (other != null) {
+            e.state.set(DONE);
+            paired.accept(other.who, who);
+            return e;
+        }
+        e.state.set(WAITING);
+        buckets[bucket(e.rating)].add(e);
+        waiting.increment();
+        // Chi e' entrato nello stesso istante potrebbe non averci visto: si ricontrolla una volta
+        tryPair(e);
+        return e;
+    }
+
+    /**
+     * e e' in coda: prova ad accoppiarla, altrimenti ritenta tra RETRY_MS. Se
+     * un candidato piu' giovane era occupato (due attese che si vedono a
+     * vicenda mentre cercano) la piu' anziana ritenta al tick successivo e
+     * l'altra tra RETRY_MS: i ritentativi possono girare in parallelo, e cosi'
+     * non si bloccano di nuovo a vicenda.
+     */
+    private void tryPair(Entry<T> e) {
+        if (!e.state.compareAndSet(WAITING, BUSY)) return;
+        boolean[] busy = new boolean[1];
+        Entry<T> other = find(e, busy);
+        if (other == null) {
+            e.state.set(WAITING);
+            timers.schedule(busy[0] ? 0 : RETRY_MS, () -> {
+                if (e.state.get() != DONE) tryPair(e);
+            });
+            return;
+        }
+        e.state.set(DONE);
+        waiting.decrement();
+        // Il primo e' chi aspetta da piu' tempo
+        Entry<T> first = other.since - e.since <= 0 ? other : e, second = first == e ? other : e;
+        runner.execute(() -> paired.accept(first.who, second.who));
+    }
+
+    /**
+     * Cerca e prenota (WAITING -> DONE) l'attesa compatibile piu' vicina per
+     * punteggio, partendo dal bucket di e e allargandosi a sinistra e a destra.
+     * Se salta un candidato compatibile e occupato, arrivato dopo e, lo segnala in busy.
+     */
+    private Entry<T> find(Entry<T> e, boolean[] busy) {
+        long now = System.nanoTime();
+        int home = bucket(e.rating);
+        int reach = (int) Math.min(buckets.length, ((long) window(e, now) + MAX_REACH) / BUCKET + 1);
+        for (int d = 0; d <= reach; d++) {
+            for (int side = 0; side < (d == 0 ? 1 : 2); side++) {
+                int b = side == 0 ? home + d : home - d;
+                if (b < 0 || b >= buckets.length) continue;
+                Entry<T> o = claim(buckets[b], e, now, busy);
+                if (o != null) return o;
+            }
+        }
+        return null;
+    }
+
+    private Entry<T> claim(ConcurrentLinkedDeque<Entry<T>> q, Entry<T> e, long now, boolean[] busy) {
+        int we = window(e, now);
+        for (Iterator<Entry<T>> it = q.iterator(); it.hasNext(); ) {
+            Entry<T> o = it.next();
+            int s = o.state.get();
+            if (s == DONE) {
+                it.remove();
+                continue;
+            }
+            if (o == e) continue;
+            if (Math.abs(o.rating - e.rating) > Math.max(we, window(o, now))) continue;
+            if (s != WAITING) {
+                if (busy != null && e.since - o.since <= 0) busy[0] = true;
+                continue;
+            }
+            if (o.state.compareAndSet(WAITING, DONE)) {
+                it.remove();
+                waiting.decrement();
+                return o;
+            }
+        }
+        return null;
+    }
+
+    private int bucket(int rating) { return rating / BUCKET; }
+
+    /** Distanza di punteggio accettata dopo l'attesa fin qui; oltre MAX_WAIT_MS qualsiasi. */
+    private static int window(Entry<?> e, long now) {
+        long waitedMs = (now - e.since) / 1_000_000;
+        if (waitedMs >= MAX_WAIT_MS) return Integer.MAX_VALUE / 2;
+        return (int) (BASE_WINDOW + WINDOW_PER_S * waitedMs / 1000);
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Il Matchmaker da solo, senza socket ne' partite: alcuni thread fanno
+ * entrare giocatori finti con punteggi distribuiti normalmente (1500 +- 300)
+ * al ritmo richiesto, o piu' in fretta possibile con rate=0. Misura il costo
+ * di join, l'attesa dall'ingresso all'accoppiamento (per entrambi i
+ * giocatori) e la distanza di punteggio delle coppie.
+ *
+ * Uso: java -cp .:../F4Common MatchmakerBench [join al secondo] [secondi] [thread]
+ *      (default: 5000 10 2)
+ */
+class MatchmakerBench {
+    private static final class Fake {
+        final long joinedAt = System.nanoTime();
+        final int rating;
+
+        Fake(int rating) { this.rating = rating; }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long rate = args.length > 0 ? Long.parseLong(args[0]) : 5000;
+        int secs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        F4Histogram joinCost = new F4Histogram(), wait = new F4Histogram(), gap = new F4Histogram();
+        LongAdder pairs = new LongAdder();
+        Matchmaker<Fake> mm = new Matchmaker<>(4000, new TimerWheel(10, 512), Runnable::run, (a, b) -> {
+            long now = System.nanoTime();
+            wait.recordNanos(now - a.joinedAt);
+            wait.recordNanos(now - b.joinedAt);
+            // La distanza di punteggio va nell'istogramma come se fossero microsecondi
+            gap.recordNanos(Math.abs(a.rating - b.rating) * 1000L);
+            pairs.increment();
+        });
+
+        long t0 = System.nanoTime(), end = t0 + secs * 1_000_000_000L;
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            long seed = i;
+            ts[i] = new Thread(() -> {
+                Random rnd = new Random(seed);
+                long n = 0, now;
+                while ((now = System.nanoTime()) < end) {
+                    if (rate > 0) {
+                        // Ingressi a ritmo costante: il thread i fa il suo pezzo del rate totale
+                        long due = t0 + n * 1_000_000_000L * threads / rate;
+                        if (due > now) {
+                            if (due - now > 200_000) try { Thread.sleep((due - now) / 1_000_000, (int) ((due - now) % 1_000_000)); } catch (InterruptedException e) { return; }
+                            continue;
+                        }
+                    }
+                    int r = (int) Math.round(1500 + 300 * rnd.nextGaussian());
+                    long s = System.nanoTime();
+                    mm.join(new Fake(Math.max(0, r)), r);
+                    joinCost.recordNanos(System.nanoTime() - s);
+                    n++;
+                }
+            }, "join-" + i);
+            ts[i].start();
+        }
+        for (Thread t : ts) t.join();
+        double el = (System.nanoTime() - t0) / 1e9;
+        // Chi e' entrato alla fine trova l'avversario entro qualche ritentativo
+        Thread.sleep(500);
+
+        long[] j = joinCost.snapshot(0.5, 0.99, 0.999), w = wait.snapshot(0.5, 0.9, 0.99, 0.999), g = gap.snapshot(0.5, 0.99);
+        System.out.printf(Locale.ROOT, "%d join in %.1f s = %.0f/s, %d coppie, in coda a fine prova %d%n",
+                j[0], el, j[0] / el, pairs.sum(), mm.size());
+        System.out.printf(Locale.ROOT, "join(): p50 %d us  p99 %d us  p999 %d us%n", j[1], j[2], j[3]);
+        System.out.printf(Locale.ROOT, "attesa fino alla coppia: p50 %.2f ms  p90 %.2f ms  p99 %.2f ms  p999 %.2f ms%n",
+                w[1] / 1e3, w[2] / 1e3, w[3] / 1e3, w[4] / 1e3);
+        System.out.printf(Locale.ROOT, "distanza di punteggio: p50 %d  p99 %d%n", g[1], g[2]);
+        System.exit(0);
+    }
+}
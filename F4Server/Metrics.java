@@ -0,0 +1,111 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metriche del server, registrate senza lock: contatori LongAdder e
+ * istogrammi a bucket fissi (F4Histogram).
+ *
+ * Con --metrics-port=N il server le espone in testo, formato Prometheus, su
+ * http://127.0.0.1:N/metrics (qualsiasi percorso va bene). Oltre ai totali,
+ * un thread a parte calcola ogni secondo le partite iniziate e finite
+ * nell'ultimo secondo.
+ */
+class Metrics {
+    /** Elaborazione di una mossa: dalla ricezione del MOVE ai messaggi del turno accodati. */
+    final F4Histogram moveProcessing = new F4Histogram();
+    /** Dal YOUR_TURN alla mossa ricevuta dallo stesso giocatore. */
+    final F4Histogram moveRtt = new F4Histogram();
+
+    final LongAdder matchesStarted = new LongAdder();
+    final LongAdder matchesFinished = new LongAdder();
+    final LongAdder connections = new LongAdder();
+    final LongAdder activeConnections = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+
+    private volatile long startedLastSecond, finishedLastSecond;
+
+    /** Avvia l'endpoint e il campionamento al secondo; thread daemon, solo su loopback. */
+    void serve(F4Server server, int port) throws IOException {
+        ServerSocket ss = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        Thread t = new Thread(() -> {
+            while (true) {
+                try (Socket s = ss.accept()) {
+                    s.setSoTimeout(2000);
+                    // Basta la riga di richiesta: intestazioni e percorso si ignorano
+                    new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+                    byte[] body = scrape(server).getBytes(StandardCharsets.UTF_8);
+                    OutputStream out = s.getOutputStream();
+                    out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4\r\nContent-Length: "
+                            + body.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                } catch (IOException e) {
+                    // richiesta malformata o client sparito: si passa alla prossima
+                }
+            }
+        }, "metriche");
+        t.setDaemon(true);
+        t.start();
+
+        Thread rate = new Thread(() -> {
+            long started = 0, finished = 0;
+            while (true) {
+                try { Thread.sleep(1000); } catch (InterruptedException e) { return; }
+                long s = matchesStarted.sum(), f = matchesFinished.sum();
+                startedLastSecond = s - started;
+                finishedLastSecond = f - finished;
+                started = s;
+                finished = f;
+            }
+        }, "metriche-rate");
+        rate.setDaemon(true);
+        rate.start();
+    }
+
+    String scrape(F4Server server) {
+        StringBuilder sb = new StringBuilder(2048);
+        summary(sb, "f4_move_processing_seconds", "Elaborazione di una mossa sul server", moveProcessing);
+        summary(sb, "f4_move_rtt_seconds", "Da YOUR_TURN alla mossa ricevuta", moveRtt);
+        counter(sb, "f4_matches_started_total", "Partite iniziate (o riprese)", matchesStarted.sum());
+        counter(sb, "f4_matches_finished_total", "Partite finite", matchesFinished.sum());
+        gauge(sb, "f4_matches_started_per_second", "Partite iniziate nell'ultimo secondo", startedLastSecond);
+        gauge(sb, "f4_matches_finished_per_second", "Partite finite nell'ultimo secondo", finishedLastSecond);
+        gauge(sb, "f4_matches_active", "Partite in corso", server.activeMatchCount());
+        counter(sb, "f4_connections_total", "Connessioni accettate", connections.sum());
+        gauge(sb, "f4_connections_active", "Connessioni aperte", activeConnections.sum());
+        counter(sb, "f4_disconnects_total", "Partite interrotte da una disconnessione", disconnects.sum());
+        counter(sb, "f4_bytes_in_total", "Byte ricevuti dai client", bytesIn.sum());
+        counter(sb, "f4_bytes_out_total", "Byte spediti ai client", bytesOut.sum());
+        return sb.toString();
+    }
+
+    /** count, sum e i quantili p50, p99, p999 come summary Prometheus, in secondi. */
+    private static void summary(StringBuilder sb, String name, String help, F4Histogram h) {
+        double[] q = {0.5, 0.99, 0.999};
+        long[] v = h.snapshot(q);
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (int i = 0; i < q.length; i++) {
+            sb.append(name).append("{quantile=\"").append(q[i]).append("\"} ")
+                    .append(String.format(Locale.ROOT, "%.6f", v[i + 1] / 1e6)).append('\n');
+        }
+        sb.append(name).append("_sum ").append(String.format(Locale.ROOT, "%.6f", h.sumMicros() / 1e6)).append('\n');
+        sb.append(name).append("_count ").append(v[0]).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long v) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(v).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long v) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(v).append('\n');
+    }
+}
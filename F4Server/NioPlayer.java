@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connessione gestita da un event loop NIO, con buffer di lettura e scrittura
+ * propri; in ingresso fa il framing a righe del protocollo testuale o quello a
+ * frame del protocollo binario, se negoziato.
+ */
+class NioPlayer extends Player {
+    private static final int MAX_LINE = 4096;
+
+    private final F4Server server;
+    private final NioTransport.EventLoop loop;
+    private final SocketChannel ch;
+    private final Metrics metrics;
+    private SelectionKey key;
+
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+    private final F4Proto.Frame frame = new F4Proto.Frame();
+    private ByteBuffer out = ByteBuffer.allocate(512);
+    private boolean flushQueued;
+    private boolean closing;
+    private boolean disconnected;
+
+    NioPlayer(F4Server server, NioTransport.EventLoop loop, SocketChannel ch) {
+        this.server = server;
+        this.loop = loop;
+        this.ch = ch;
+        this.port = ch.socket().getPort();
+        this.metrics = server.metrics;
+        metrics.connections.increment();
+        metrics.activeConnections.increment();
+        server.accepted(this);
+    }
+
+    void register(Selector selector) {
+        try {
+            key = ch.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            disconnect();
+        }
+    }
+
+    void onReadable() {
+        int n;
+        try {
+            n = ch.read(in);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) { disconnect(); return; }
+        metrics.bytesIn.add(n);
+
+        in.flip();
+        byte[] a = in.array();
+        try {
+            while (!disconnected && in.hasRemaining()) {
+                if (binaryIn) {
+                    if (!F4Proto.decode(in, frame)) break;
+                    server.onFrame(this, frame);
+                    continue;
+                }
+                int start = in.position(), nl = -1;
+                for (int i = start; i < in.limit(); i++) if (a[i] == '\n') { nl = i; break; }
+                if (nl < 0) break;
+                int end = nl;
+                if (end > start && a[end - 1] == '\r') end--;
+                in.position(nl + 1);
+                if (name != null && F4Text.parse(a, start, end - start, frame) && frame.op == F4Proto.MOVE) server.onFrame(this, frame);
+                else dispatch(new String(a, start, end - start, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            disconnect();
+            return;
+        }
+        if (disconnected) return;
+        in.compact();
+        // Riga o frame troppo lungo: il client non rispetta il protocollo
+        if (!in.hasRemaining()) disconnect();
+    }
+
+    private void dispatch(String line) {
+        if (name == null) {
+            name = !line.isEmpty() ? line : "Unknown";
+            server.onConnect(this);
+        } else {
+            server.onLine(this, line);
+        }
+    }
+
+    @Override
+    ByteBuffer outBuffer(int n) {
+        if (closing || closed) return null;
+        if (out.remaining() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + n));
+            out.flip();
+            bigger.put(out);
+            out = bigger;
+        }
+        return out;
+    }
+
+    @Override
+    void outReady() {
+        synchronized (this) {
+            if (flushQueued || out.position() == 0) return;
+            flushQueued = true;
+        }
+        loop.requestFlush(this);
+    }
+
+    /** Eseguito solo dal thread dell'event loop. */
+    void flush() {
+        boolean closeNow;
+        synchronized (this) {
+            flushQueued = false;
+            if (closed || key == null) return;
+            try {
+                out.flip();
+                metrics.bytesOut.add(ch.write(out));
+                out.compact();
+                // Spettatore: solo a buffer vuoto si prendono gli eventi successivi
+                while (out.position() == 0 && !closing && pullEvents()) {
+                    out.flip();
+                    metrics.bytesOut.add(ch.write(out));
+                    out.compact();
+                }
+            } catch (IOException e) {
+                out.clear();
+                closing = true;
+            }
+            boolean pending = out.position() > 0;
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            closeNow = closing && !pending;
+        }
+        if (closeNow) disconnect();
+    }
+
+    @Override
+    void wake() {
+        synchronized (this) {
+            if (flushQueued || closing || closed) return;
+            flushQueued = true;
+        }
+        loop.requestFlush(this);
+    }
+
+    /** Chiude la connessione dopo aver spedito quanto gia' accodato. */
+    @Override
+    void close() {
+        synchronized (this) {
+            if (closing || closed) return;
+            closing = true;
+            if (flushQueued) return;
+            flushQueued = true;
+        }
+        loop.requestFlush(this);
+    }
+
+    /** Chiude subito la connessione dopo un errore inatteso nel suo handler. */
+    void fail(RuntimeException e) {
+        server.warn("Errore sulla connessione " + port + ": " + e);
+        try {
+            disconnect();
+        } catch (RuntimeException e2) {
+            server.warn("Errore chiudendo la connessione " + port + ": " + e2);
+        }
+    }
+
+    private void disconnect() {
+        if (disconnected) return;
+        disconnected = true;
+        metrics.activeConnections.decrement();
+        synchronized (this) { closed = true; }
+        if (key != null) key.cancel();
+        try { ch.close(); } catch (IOException e) {}
+        if (name != null) server.onDisconnect(this);
+    }
+}
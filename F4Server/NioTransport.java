@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Trasporto non bloccante: un thread accetta le connessioni e le distribuisce
+ * round-robin su un piccolo numero fisso di event loop, ognuno con il proprio Selector.
+ */
+class NioTransport {
+    private final F4Server server;
+    private final int port;
+    private final boolean noDelay;
+    private final EventLoop[] loops;
+
+    NioTransport(F4Server server, int port, int nLoops, boolean noDelay) throws IOException {
+        this.server = server;
+        this.port = port;
+        this.noDelay = noDelay;
+        loops = new EventLoop[Math.max(1, nLoops)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new EventLoop(i);
+    }
+
+    /** Avvia gli event loop e accetta connessioni sul thread chiamante. */
+    void start() throws IOException {
+        for (EventLoop l : loops) l.thread.start();
+
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            ssc.bind(new InetSocketAddress(port), 1024);
+            int next = 0;
+            while (true) {
+                SocketChannel ch = ssc.accept();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, noDelay);
+                loops[next].register(new NioPlayer(server, loops[next], ch));
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    static final class EventLoop implements Runnable {
+        final Thread thread;
+        private final Selector selector;
+        private final Queue<NioPlayer> registrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioPlayer> flushes = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int id) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "nio-loop-" + id);
+        }
+
+        void register(NioPlayer p) {
+            registrations.add(p);
+            selector.wakeup();
+        }
+
+        /** Chiede al loop di svuotare il buffer di uscita di p; chiamabile da qualsiasi thread. */
+        void requestFlush(NioPlayer p) {
+            flushes.add(p);
+            if (Thread.currentThread() != thread) selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    NioPlayer p;
+                    while ((p = registrations.poll()) != null) {
+                        try { p.register(selector); } catch (RuntimeException e) { p.fail(e); }
+                    }
+                    while ((p = flushes.poll()) != null) {
+                        try { p.flush(); } catch (RuntimeException e) { p.fail(e); }
+                    }
+
+                    selector.select();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey k = it.next();
+                        it.remove();
+                        NioPlayer np = (NioPlayer) k.attachment();
+                        // Un errore in un handler chiude solo quella connessione, non il loop
+                        try {
+                            if (k.isValid() && k.isReadable()) np.onReadable();
+                            if (k.isValid() && k.isWritable()) np.flush();
+                        } catch (RuntimeException e) {
+                            np.fail(e);
+                        }
+                    }
+                } catch (IOException e) {
+                    // errore del selector: il loop continua
+                }
+            }
+        }
+    }
+}
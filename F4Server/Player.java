@@ -0,0 +1,170 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Un giocatore connesso, indipendente dal trasporto (socket bloccante o NIO).
+ *
+ * I messaggi vengono codificati qui, nel protocollo testuale (F4Text) o in
+ * quello binario (F4Proto) a seconda di quanto negoziato, direttamente nel
+ * buffer di uscita del trasporto e senza stringhe intermedie; il trasporto si
+ * occupa solo di spedirlo.
+ */
+abstract class Player {
+    String name;
+    char symbol;
+    volatile Match match;
+    volatile boolean closed;
+    boolean analysisOnly;
+    // Porta da cui si e' collegato il client: dietro il router identifica la sessione (vedi RouterLink)
+    int port;
+
+    // In coda per una partita (vedi Matchmaker)
+    volatile Matchmaker.Entry<Player> queued;
+
+    // Handshake, poi inattivita' (vedi F4Server.accepted e armIdle)
+    volatile TimerWheel.Timeout timer;
+    volatile long lastInput;
+
+    // >0 mentre una partita produce i messaggi di un turno: si spedisce tutto in endBatch
+    private int batch;
+
+    // Spettatore: la partita osservata e l'indice del prossimo evento da spedire (vedi Spectators)
+    Spectators watching;
+    int cursor;
+
+    /** Il client scrive in binario: usato solo dal thread che legge. */
+    boolean binaryIn;
+    private boolean binaryOut;
+
+    /**
+     * Buffer di uscita in scrittura con almeno n byte liberi, oppure null se la
+     * connessione non accetta piu' messaggi. Chiamato con il lock di this.
+     */
+    abstract ByteBuffer outBuffer(int n);
+
+    /** Segnala al trasporto che c'e' qualcosa da spedire. Chiamato senza lock. */
+    abstract void outReady();
+
+    abstract void close();
+
+    /** Spettatore: ci sono eventi nuovi, il trasporto li chieda con pullEvents quando puo'. Non blocca. */
+    abstract void wake();
+
+    /**
+     * Spettatore: mette nel buffer di uscita gli eventi non ancora spediti.
+     * Il trasporto la chiama a buffer vuoto; false se non c'era niente.
+     * Chiude la connessione quando la partita e' finita ed e' stato spedito tutto.
+     */
+    boolean pullEvents() {
+        boolean more, done;
+        synchronized (this) {
+            if (watching == null) return false;
+            more = watching.pull(this);
+            done = !more && watching.done(this);
+        }
+        if (done) close();
+        return more;
+    }
+
+    void send(String m) {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(m.length()));
+            if (b == null) return;
+            if (binaryOut) F4Proto.putString(b, F4Proto.TEXT, m);
+            else F4Text.putLine(b, m);
+            if (batch > 0) return;
+        }
+        outReady();
+    }
+
+    void sendConfig(int rows, int cols, char sym, boolean red) {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(1));
+            if (b == null) return;
+            if (binaryOut) F4Proto.putConfig(b, rows, cols, sym, red);
+            else F4Text.putConfig(b, rows, cols, sym, red);
+            if (batch > 0) return;
+        }
+        outReady();
+    }
+
+    void sendStart(String opponent, char sym) {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(opponent.length() + 1));
+            if (b == null) return;
+            if (binaryOut) F4Proto.putStart(b, opponent, sym);
+            else F4Text.putStart(b, opponent, sym);
+            if (batch > 0) return;
+        }
+        outReady();
+    }
+
+    void sendMoved(int row, int col, char sym) {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(1));
+            if (b == null) return;
+            if (binaryOut) F4Proto.putMoved(b, row, col, sym);
+            else F4Text.putMoved(b, row, col, sym);
+            if (batch > 0) return;
+        }
+        outReady();
+    }
+
+    void sendWin(String winner) {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(winner.length()));
+            if (b == null) return;
+            if (binaryOut) F4Proto.putString(b, F4Proto.WIN, winner);
+            else F4Text.putWin(b, winner);
+            if (batch > 0) return;
+        }
+        outReady();
+    }
+
+    /** name ha finito il tempo: segue il WIN dell'avversario. */
+    void sendTimeout(String name) {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(name.length()));
+            if (b == null) return;
+            if (binaryOut) F4Proto.putString(b, F4Proto.TIMEOUT, name);
+            else F4Text.putTimeout(b, name);
+            if (batch > 0) return;
+        }
+        outReady();
+    }
+
+    /** Messaggi senza argomenti: YOUR_TURN, WAIT_TURN, DRAW, EXIT_OPPONENT_LEFT. */
+    void sendOp(int op) {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(0));
+            if (b == null) return;
+            if (binaryOut) F4Proto.putOp(b, op);
+            else F4Text.putOp(b, op);
+            if (batch > 0) return;
+        }
+        outReady();
+    }
+
+    /** Trattiene i messaggi fino a endBatch, cosi' un turno costa una sola scrittura. */
+    synchronized void beginBatch() {
+        batch++;
+    }
+
+    void endBatch() {
+        synchronized (this) {
+            if (--batch > 0) return;
+        }
+        outReady();
+    }
+
+    /** Il client ha accettato il protocollo binario: conferma in testo, poi si passa al binario. */
+    void enableBinary() {
+        synchronized (this) {
+            ByteBuffer b = outBuffer(F4Text.maxSize(F4Proto.OK.length()));
+            if (b == null) return;
+            F4Text.putLine(b, F4Proto.OK);
+            binaryOut = true;
+        }
+        binaryIn = true;
+        outReady();
+    }
+}
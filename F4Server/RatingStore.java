@@ -0,0 +1,122 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Punteggi Elo dei giocatori, per nome. In memoria una mappa concorrente; su
+ * disco (se c'e' un file) un registro in sola aggiunta di record compatti
+ *   lunghezza nome (short) | nome UTF-8 | punteggio (float) | partite (int)
+ * dove per ogni nome vale l'ultimo. Il nome si scrive intero: arriva da una
+ * riga del protocollo, al massimo 4096 byte. All'avvio il registro si rilegge e si
+ * riscrive compatto (un record per nome, in un file nuovo poi rinominato);
+ * lo stesso succede quando i record superano di COMPACT_FACTOR volte i nomi.
+ * Ogni partita finita costa una sola write, senza fsync.
+ */
+class RatingStore {
+    static final int START = 1500;
+    private static final double K = 32;
+    private static final int COMPACT_FACTOR = 4;
+
+    private static final class Rating {
+        volatile double value = START;
+        int games;
+    }
+
+    private final Map<String, Rating> ratings = new ConcurrentHashMap<>();
+    private final Path file;
+    private FileChannel log;
+    private long records;
+    private ByteBuffer buf = ByteBuffer.allocate(2 * (2 + 255 + 8));
+
+    /** Senza file i punteggi durano quanto il server. */
+    RatingStore(Path file) throws IOException {
+        this.file = file;
+        if (file == null) return;
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    int hi = in.read();
+                    if (hi < 0) break;
+                    byte[] n = new byte[hi << 8 | in.readUnsignedByte()];
+                    in.readFully(n);
+                    Rating r = ratings.computeIfAbsent(new String(n, StandardCharsets.UTF_8), k -> new Rating());
+                    r.value = in.readFloat();
+                    r.games = in.readInt();
+                }
+            } catch (EOFException e) {
+                // ultimo record scritto a meta' da un arresto: si scarta
+            }
+        }
+        compact();
+    }
+
+    /** Punteggio attuale di name, START se non ha mai giocato. */
+    int rating(String name) {
+        Rating r = ratings.get(name);
+        return r == null ? START : (int) Math.round(r.value);
+    }
+
+    /** Aggiorna i due punteggi dopo una partita; scoreA: 1 vince a, 0.5 pari, 0 vince b. */
+    synchronized void record(String a, String b, double scoreA) {
+        Rating ra = ratings.computeIfAbsent(a, k -> new Rating());
+        Rating rb = ratings.computeIfAbsent(b, k -> new Rating());
+        double expected = 1 / (1 + Math.pow(10, (rb.value - ra.value) / 400));
+        double delta = K * (scoreA - expected);
+        ra.value += delta;
+        rb.value -= delta;
+        ra.games++;
+        rb.games++;
+        if (log == null) return;
+        buf.clear();
+        put(a, ra);
+        put(b, rb);
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) log.write(buf);
+            records += 2;
+            if (records > COMPACT_FACTOR * (long) Math.max(1024, ratings.size())) compact();
+        } catch (IOException e) {
+            // disco pieno o file sparito: si continua in memoria
+            closeLog();
+        }
+    }
+
+    /** Riscrive il file con un record per nome e riapre il registro in coda. */
+    private synchronized void compact() throws IOException {
+        closeLog();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, Rating> e : ratings.entrySet()) {
+                buf.clear();
+                put(e.getKey(), e.getValue());
+                buf.flip();
+                while (buf.hasRemaining()) out.write(buf);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = ratings.size();
+        log = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void put(String name, Rating r) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        if (buf.remaining() < 2 + n.length + 8) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + 2 + n.length + 8));
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+        buf.putShort((short) n.length).put(n).putFloat((float) r.value).putInt(r.games);
+    }
+
+    private void closeLog() {
+        if (log == null) return;
+        try { log.close(); } catch (IOException e) {}
+        log = null;
+    }
+}
@@ -0,0 +1,138 @@
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Il nodo visto da F4Router (server avviato con --node-key=chiave). Il router
+ * si collega come un client qualsiasi presentandosi con "NODE chiave"; su
+ * quella connessione passano righe di testo:
+ * <pre>
+ *   nodo -> router   LOAD partite coda svuotamento      ogni REPORT_MS
+ *                    MIGRATE porta1 porta2 stato        partita da spostare
+ *                    REQUEUE porta                      giocatore in coda da mandare altrove
+ *                    IMPORTED token1                    partita ricevuta
+ *   router -> nodo   DRAIN                              niente piu' partite: spostare tutto
+ *                    SHED                               chi e' in coda torna al router
+ *                    IMPORT token1 token2 stato         partita da un altro nodo
+ * </pre>
+ * stato = righe colonne sim1 sim2 celle nome1 nome2: i simboli come codici,
+ * le celle una cifra ciascuna (0 vuota, 1 e 2 i giocatori) riga per riga
+ * dall'alto come nel journal, i nomi codificati come negli URL. Le porte sono
+ * quelle da cui il router si e' collegato per ciascun giocatore: cosi' sa
+ * quale sessione ricollegare. I giocatori di una partita importata arrivano
+ * con "SEAT token" (vedi F4Server.resumeSeat).
+ *
+ * Durante lo svuotamento ogni DRAIN_MS si rimandano al router quelli in coda
+ * e si spostano le partite in corso, anche quelle appena nate; a nodo vuoto
+ * il processo esce.
+ */
+class RouterLink {
+    private static final long REPORT_MS = 100, DRAIN_MS = 100, DRAIN_MAX_MS = 30_000;
+
+    private final F4Server server;
+    private final String key;
+    private volatile Player control;
+    private volatile boolean draining;
+    private long drainStart;
+
+    RouterLink(F4Server server, String key) {
+        this.server = server;
+        this.key = key;
+    }
+
+    /** p si e' presentato con hello "NODE chiave": false se la chiave non torna. */
+    boolean attach(Player p) {
+        if (!p.name.equals("NODE " + key)) return false;
+        Player old = control;
+        control = p;
+        p.name = "router";
+        if (old != null) old.close();
+        server.log("Router collegato");
+        report(p);
+        return true;
+    }
+
+    boolean isControl(Player p) { return p == control; }
+
+    private void report(Player p) {
+        if (p.closed || p != control) return;
+        p.send("LOAD " + server.activeMatchCount() + " " + server.lobbySize() + " " + (draining ? 1 : 0));
+        server.timers.schedule(REPORT_MS, () -> report(p));
+    }
+
+    void onLine(String line) {
+        if (line.equals("DRAIN")) {
+            if (draining) return;
+            draining = true;
+            drainStart = System.nanoTime();
+            server.log("Svuotamento del nodo");
+            server.timers.schedule(0, this::drainPass);
+        } else if (line.equals("SHED")) {
+            shed();
+        } else if (line.startsWith("IMPORT ")) {
+            importMatch(line);
+        }
+    }
+
+    private void send(String line) {
+        Player p = control;
+        if (p != null) p.send(line);
+    }
+
+    private void shed() {
+        server.shedLobby(p -> send("REQUEUE " + p.port));
+    }
+
+    private void drainPass() {
+        shed();
+        for (Match m : server.liveMatches()) {
+            String state = m.migrate();
+            if (state != null) send("MIGRATE " + m.p1.port + " " + m.p2.port + " " + state);
+        }
+        // Si esce quando il router ha ricollegato tutti altrove (resta solo la sua connessione)
+        boolean empty = server.activeMatchCount() == 0 && server.lobbySize() == 0;
+        if (empty && (server.metrics.activeConnections.sum() <= 1 || System.nanoTime() - drainStart > DRAIN_MAX_MS * 1_000_000)) {
+            server.log("Nodo svuotato, uscita");
+            System.exit(0);
+        }
+        server.timers.schedule(DRAIN_MS, this::drainPass);
+    }
+
+    private void importMatch(String line) {
+        String[] f = line.split(" ");
+        try {
+            int rows = Integer.parseInt(f[3]), cols = Integer.parseInt(f[4]);
+            F4Board board = new F4Board(rows, cols);
+            String cells = f[7];
+            if (cells.length() != rows * cols) throw new IllegalArgumentException("celle");
+            for (int c = 0; c < cols; c++) {
+                for (int r = rows - 1; r >= 0; r--) {
+                    int v = cells.charAt(r * cols + c) - '0';
+                    if (v == 0) break;
+                    board.drop(c, v - 1);
+                }
+            }
+            Journal.Saved s = new Journal.Saved(server.nextMatchId(), rows, cols,
+                    (char) Integer.parseInt(f[5]), (char) Integer.parseInt(f[6]),
+                    URLDecoder.decode(f[8], StandardCharsets.UTF_8), URLDecoder.decode(f[9], StandardCharsets.UTF_8), board);
+            s.token1 = f[1];
+            s.token2 = f[2];
+            s.imported = true;
+            server.imported(s);
+            server.log("Partita #" + s.id + " ricevuta: " + s.name1 + " vs " + s.name2);
+            send("IMPORTED " + f[1]);
+        } catch (RuntimeException e) {
+            server.warn("IMPORT non valido: " + line);
+        }
+    }
+
+    static String encode(int rows, int cols, char sym1, char sym2, String name1, String name2, F4Board board) {
+        StringBuilder sb = new StringBuilder(rows * cols + 64);
+        sb.append(rows).append(' ').append(cols).append(' ').append((int) sym1).append(' ').append((int) sym2).append(' ');
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++) sb.append((char) ('1' + board.cell(r, c)));
+        sb.append(' ').append(URLEncoder.encode(name1, StandardCharsets.UTF_8))
+                .append(' ').append(URLEncoder.encode(name2, StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+}
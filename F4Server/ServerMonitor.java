@@ -0,0 +1,152 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Il monitor Swing del server: la partita osservata, lo stato e il log.
+ * Si aggancia a un F4Server e lo legge a intervalli, quindi il
+ * server non sa nulla di AWT e puo' girare senza display (--headless).
+ * L'area di log tiene solo le ultime MAX_LINES righe.
+ */
+class ServerMonitor extends JFrame {
+    private static final int MAX_LINES = 1000;
+
+    private final F4Server server;
+    private JLabel lblStatus;
+    private JLabel lblP1, lblP2;
+    private JPanel boardPanel;
+    private JTextArea logArea;
+
+    private Timer scanTimer;
+    private int dotCount = 0;
+    private int ticks;
+    private Match shown;
+    private int shownMoves;
+    private int[] shownHeights;
+    private final F4BoardPainter painter = new F4BoardPainter();
+
+    ServerMonitor(F4Server server) {
+        super("F4 Server Monitor");
+        this.server = server;
+        setupGUI();
+        server.logger().viewer = this::append;
+    }
+
+    /** Crea il monitor sull'EDT e solo dopo avvia il server, cosi' il log compare dalla prima riga. */
+    static void open(F4Server server) {
+        SwingUtilities.invokeLater(() -> {
+            new ServerMonitor(server);
+            server.start();
+        });
+    }
+
+    static void showError(String msg) {
+        JOptionPane.showMessageDialog(null, msg);
+    }
+
+    private void setupGUI() {
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setSize(900, 600);
+        setLayout(new BorderLayout());
+
+        JPanel header = new JPanel(new GridLayout(2, 1));
+        header.setBorder(new EmptyBorder(10,10,10,10));
+        header.setBackground(new Color(230,230,230));
+
+        lblStatus = new JLabel("Server Attivo - Porta " + server.port());
+        lblStatus.setFont(new Font("Arial", Font.BOLD, 16));
+        lblStatus.setHorizontalAlignment(SwingConstants.CENTER);
+        header.add(lblStatus);
+
+        JPanel playersPanel = new JPanel(new GridLayout(1, 2));
+        lblP1 = new JLabel("Player 1: Scanning...");
+        lblP2 = new JLabel("Player 2: Scanning...");
+        lblP1.setHorizontalAlignment(SwingConstants.CENTER);
+        lblP2.setHorizontalAlignment(SwingConstants.CENTER);
+        playersPanel.add(lblP1);
+        playersPanel.add(lblP2);
+        header.add(playersPanel);
+        add(header, BorderLayout.NORTH);
+
+        boardPanel = new JPanel() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                drawBoard(g);
+            }
+        };
+        boardPanel.setBackground(Color.LIGHT_GRAY);
+        add(boardPanel, BorderLayout.CENTER);
+
+        logArea = new JTextArea();
+        logArea.setEditable(false);
+        JScrollPane scroll = new JScrollPane(logArea);
+        scroll.setPreferredSize(new Dimension(250, 0));
+        scroll.setBorder(BorderFactory.createTitledBorder("Log"));
+        add(scroll, BorderLayout.EAST);
+
+        // La board si controlla spesso, le etichette come prima ogni 500 ms
+        scanTimer = new Timer(100, e -> refresh());
+        scanTimer.start();
+
+        setVisible(true);
+    }
+
+    private void refresh() {
+        Match m = server.watchedMatch();
+        if (m != shown && m != null) {
+            shown = m;
+            shownMoves = m.board.moves();
+            shownHeights = new int[m.cols];
+            for (int c = 0; c < m.cols; c++) shownHeights[c] = m.board.height(c);
+            lblP1.setText("P1: " + m.p1.name);
+            lblP2.setText("P2: " + m.p2.name);
+            boardPanel.repaint();
+        } else if (m != null && m.board.moves() != shownMoves) {
+            // Si ridisegnano solo le celle riempite dall'ultimo controllo
+            shownMoves = m.board.moves();
+            for (int c = 0; c < m.cols; c++) {
+                int h = m.board.height(c);
+                for (int k = shownHeights[c]; k < h; k++) painter.repaintCell(boardPanel, m.rows - 1 - k, c);
+                shownHeights[c] = h;
+            }
+        }
+        if (++ticks % 5 == 0) animateLabels();
+    }
+
+    private void animateLabels() {
+        dotCount = (dotCount + 1) % 4;
+        String dots = ".".repeat(dotCount);
+        lblStatus.setText("Server Attivo - Porta " + server.port() + " - Partite: " + server.activeMatchCount() + " - In coda: " + server.lobbySize());
+        if (shown == null) {
+            lblP1.setText("Player 1: Scanning" + dots);
+            lblP2.setText("Player 2: Scanning" + dots);
+        }
+    }
+
+    /** Dal thread del log: un solo invokeLater per lotto. */
+    private void append(List<String> lines) {
+        SwingUtilities.invokeLater(() -> {
+            StringBuilder sb = new StringBuilder();
+            for (String l : lines) sb.append(l).append('\n');
+            logArea.append(sb.toString());
+            int excess = logArea.getLineCount() - 1 - MAX_LINES;
+            if (excess > 0) {
+                try {
+                    logArea.replaceRange("", 0, logArea.getLineStartOffset(excess));
+                } catch (BadLocationException e) {
+                    logArea.setText("");
+                }
+            }
+            logArea.setCaretPosition(logArea.getDocument().getLength());
+        });
+    }
+
+    private void drawBoard(Graphics g) {
+        Match m = shown;
+        if (m == null) return;
+        painter.paint(g, m.board, boardPanel.getWidth(), boardPanel.getHeight(), Color.RED, m.p1.symbol, Color.YELLOW, m.p2.symbol);
+    }
+}
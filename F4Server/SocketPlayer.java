@@ -0,0 +1,136 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Trasporto bloccante: un thread per connessione legge le righe (o i frame
+ * binari) e li passa al server.
+ */
+class SocketPlayer extends Player implements Runnable {
+    private final F4Server server;
+    private final Socket s;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Metrics metrics;
+
+    // I messaggi si accodano in pending (sotto il lock di this, senza I/O); chi tiene
+    // writeLock li copia e li scrive sul socket. Un ReentrantLock e non synchronized
+    // perche' la scrittura blocca e potrebbe girare su un virtual thread.
+    private ByteBuffer pending = ByteBuffer.allocate(256);
+    private byte[] writeBuf = new byte[256];
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Semaphore wakeups = new Semaphore(0);
+
+    SocketPlayer(F4Server server, Socket s) throws IOException {
+        this.server = server;
+        this.s = s;
+        this.port = s.getPort();
+        this.metrics = server.metrics;
+        // I byte ricevuti si contano a ogni riempimento del buffer, non a ogni riga
+        in = new BufferedInputStream(new FilterInputStream(s.getInputStream()) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) metrics.bytesIn.add(n);
+                return n;
+            }
+        });
+        out = s.getOutputStream();
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer scratch = ByteBuffer.allocate(4096);
+        F4Proto.Frame frame = new F4Proto.Frame();
+        metrics.connections.increment();
+        metrics.activeConnections.increment();
+        server.accepted(this);
+        try {
+            String n = F4Proto.readLine(in, scratch);
+            if (n == null) return;
+            name = !n.isEmpty() ? n : "Unknown";
+            server.onConnect(this);
+            if (watching != null) { spectate(); return; }
+
+            while (true) {
+                if (binaryIn) {
+                    if (!F4Proto.read(in, scratch, frame)) break;
+                    server.onFrame(this, frame);
+                } else {
+                    int len = F4Proto.readLineBytes(in, scratch);
+                    if (len < 0) break;
+                    // Le mosse si leggono senza creare stringhe; il resto passa come riga
+                    if (F4Text.parse(scratch.array(), 0, len, frame) && frame.op == F4Proto.MOVE) server.onFrame(this, frame);
+                    else server.onLine(this, new String(scratch.array(), 0, len, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            // connessione chiusa
+        } finally {
+            close();
+            metrics.activeConnections.decrement();
+            if (name != null) server.onDisconnect(this);
+        }
+    }
+
+    /** Spettatore: questo thread smette di leggere e scrive gli eventi della partita man mano che arrivano. */
+    private void spectate() {
+        try {
+            while (!closed) {
+                wakeups.acquire();
+                while (!closed && pullEvents()) outReady();
+            }
+        } catch (InterruptedException e) {
+            // chiusura
+        }
+    }
+
+    @Override
+    void wake() {
+        if (wakeups.availablePermits() == 0) wakeups.release();
+    }
+
+    @Override
+    ByteBuffer outBuffer(int n) {
+        if (closed) return null;
+        if (pending.remaining() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + n));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        return pending;
+    }
+
+    @Override
+    void outReady() {
+        writeLock.lock();
+        try {
+            int n;
+            synchronized (this) {
+                n = pending.position();
+                if (n == 0) return;
+                if (writeBuf.length < n) writeBuf = new byte[pending.capacity()];
+                System.arraycopy(pending.array(), 0, writeBuf, 0, n);
+                pending.clear();
+            }
+            out.write(writeBuf, 0, n);
+            out.flush();
+            metrics.bytesOut.add(n);
+        } catch (IOException e) {
+            close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    void close() {
+        closed = true;
+        try { s.close(); } catch(Exception e){}
+        wakeups.release();
+    }
+}
@@ -0,0 +1,140 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gli spettatori di una partita.
+ *
+ * Ogni evento (MOVED, TIMEOUT, WIN, DRAW, EXIT_OPPONENT_LEFT) viene codificato una
+ * volta sola in un byte[] condiviso e aggiunto al registro della partita; gli
+ * spettatori non hanno una coda propria ma solo un cursore nel registro. Il
+ * trasporto chiede gli eventi (pull) solo quando ha finito di spedire i
+ * precedenti, quindi uno spettatore lento resta indietro invece di accumulare
+ * byte: se resta indietro di piu' di MAX_LAG eventi salta al presente e riceve
+ * un'istantanea della board.
+ *
+ * La partita paga solo la codifica e l'aggiunta al registro: a svegliare gli
+ * spettatori ci pensa un thread a parte, qualunque sia il loro numero.
+ */
+class Spectators {
+    private static final int MAX_LAG = 64;
+    private static final ExecutorService FANOUT = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "spettatori");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Match match;
+    private final Set<Player> watchers = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean wakePending = new AtomicBoolean();
+    private final ByteBuffer scratch = ByteBuffer.allocate(F4Text.maxSize(0));
+
+    // Scritti solo dalla partita, con il suo lock; letti dai trasporti
+    private volatile byte[][] events = new byte[16][];
+    private volatile int count;
+    private volatile boolean finished;
+
+    Spectators(Match match) {
+        this.match = match;
+    }
+
+    void add(Player p) {
+        synchronized (p) {
+            p.watching = this;
+            p.cursor = -1;
+        }
+        watchers.add(p);
+        p.wake();
+    }
+
+    void remove(Player p) {
+        watchers.remove(p);
+    }
+
+    // --- lato partita (con il lock della partita) ---
+
+    int position() { return count; }
+
+    void publishMoved(int row, int col, char sym) {
+        scratch.clear();
+        F4Text.putMoved(scratch, row, col, sym);
+        append(scratch);
+    }
+
+    void publishWin(String name) {
+        if (watchers.isEmpty()) return;
+        ByteBuffer b = ByteBuffer.allocate(F4Text.maxSize(name.length()));
+        F4Text.putWin(b, name);
+        append(b);
+    }
+
+    void publishTimeout(String name) {
+        if (watchers.isEmpty()) return;
+        ByteBuffer b = ByteBuffer.allocate(F4Text.maxSize(name.length()));
+        F4Text.putTimeout(b, name);
+        append(b);
+    }
+
+    void publishOp(int op) {
+        scratch.clear();
+        F4Text.putOp(scratch, op);
+        append(scratch);
+    }
+
+    /** La partita e' finita: chi ha ricevuto tutto viene disconnesso. */
+    void finish() {
+        finished = true;
+        wakeAll();
+    }
+
+    private void append(ByteBuffer encoded) {
+        if (watchers.isEmpty()) return; // i nuovi spettatori partono comunque da un'istantanea
+        byte[][] ev = events;
+        if (count == ev.length) ev = Arrays.copyOf(ev, ev.length * 2);
+        ev[count] = Arrays.copyOf(encoded.array(), encoded.position());
+        events = ev;
+        count++;
+        wakeAll();
+    }
+
+    private void wakeAll() {
+        if (!wakePending.compareAndSet(false, true)) return;
+        FANOUT.execute(() -> {
+            wakePending.set(false);
+            for (Player p : watchers) p.wake();
+        });
+    }
+
+    // --- lato trasporto ---
+
+    /**
+     * Mette nel buffer di uscita di p gli eventi che non ha ancora ricevuto (un'istantanea se e'
+     * nuovo o troppo indietro). Chiamato con il lock di p quando il suo buffer
+     * di uscita e' vuoto. Ritorna false se non c'era niente da mandare.
+     */
+    boolean pull(Player p) {
+        int n = count;
+        byte[][] ev = events;
+        if (p.cursor < 0 || n - p.cursor > MAX_LAG) {
+            p.cursor = match.snapshot(p);
+            return true;
+        }
+        if (p.cursor == n) return false;
+        int size = 0;
+        for (int i = p.cursor; i < n; i++) size += ev[i].length;
+        ByteBuffer b = p.outBuffer(size);
+        if (b == null) return false;
+        for (int i = p.cursor; i < n; i++) b.put(ev[i]);
+        p.cursor = n;
+        return true;
+    }
+
+    /** Lo spettatore ha ricevuto tutto e la partita e' finita. */
+    boolean done(Player p) {
+        return finished && p.cursor == count;
+    }
+}
@@ -0,0 +1,203 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer a ruota (hashed timing wheel) per tutte le scadenze del server:
+ * orologi delle mosse, handshake e connessioni inattive. Un solo thread
+ * avanza la ruota di uno slot a ogni tick; ogni slot e' una lista doppia
+ * di scadenze, e quelle piu' lontane di un giro completo contano i giri che
+ * mancano. Inserire e cancellare costa O(1) e non prende lock: le richieste
+ * degli altri thread passano da due code e il thread del timer le applica
+ * al tick successivo, quindi una scadenza cancellata non resta nella ruota.
+ *
+ * Le scadenze scattano con la precisione di un tick e vengono passate a
+ * runner: il thread del timer non esegue mai il codice di chi le ha chieste,
+ * che puo' prendere lock e scrivere sui socket senza fermare la ruota.
+ *
+ * Per le scadenze che si ripetono (l'orologio di un giocatore, una mossa
+ * dopo l'altra) c'e' timeout() + arm(): la stessa Timeout si riarma senza
+ * allocare. Se resta nella ruota con una scadenza vecchia, quando il suo
+ * slot arriva la si sposta alla scadenza nuova invece di farla scattare.
+ */
+class TimerWheel {
+    /** Una scadenza; cancel() si puo' chiamare da qualsiasi thread, anche piu' volte. */
+    final class Timeout {
+        private final Runnable task;
+        private final boolean reusable;
+        private volatile long deadline;
+        // Scadenza con cui e' nella ruota (sotto il lock della Timeout)
+        private long linkedDeadline;
+        private long rounds;
+        private int slot = -1;
+        private Timeout prev, next;
+        // 0 in attesa, 1 cancellata, 2 scattata
+        private volatile int state;
+        // Nella ruota o in coda per entrarci (riarmabili, sotto il lock della Timeout)
+        private boolean pending;
+
+        private Timeout(Runnable task, long deadline, boolean reusable) {
+            this.task = task;
+            this.deadline = deadline;
+            this.reusable = reusable;
+            this.state = reusable ? 1 : 0;
+        }
+
+        /**
+         * Riarma una Timeout di timeout() per l'istante deadlineNanos (in
+         * System.nanoTime). Non alloca se la scadenza nuova non e' prima di
+         * quella con cui e' gia' nella ruota, come per un orologio che avanza.
+         */
+        void arm(long deadlineNanos) {
+            synchronized (this) {
+                deadline = deadlineNanos;
+                state = 0;
+                if (pending && deadlineNanos - linkedDeadline >= 0) return;
+                pending = true;
+            }
+            added.add(this);
+        }
+
+        void cancel() {
+            if (state != 0) return;
+            state = 1;
+            // Una riarmabile resta nella ruota fino al suo slot: la si riusa senza code
+            if (!reusable) cancelled.add(this);
+        }
+    }
+
+    private final long tickNanos;
+    private final Timeout[] heads;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    private final Executor runner;
+    private long tick;
+    private int size;
+
+    /** Le scadenze girano sul thread del timer: solo per compiti brevi, come nei bench. */
+    TimerWheel(long tickMs, int slots) {
+        this(tickMs, slots, Runnable::run);
+    }
+
+    /** slots viene arrotondato alla potenza di 2 successiva; le scadenze girano su runner. */
+    TimerWheel(long tickMs, int slots, Executor runner) {
+        this.runner = runner;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        int n = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+        heads = new Timeout[n];
+        mask = n - 1;
+        Thread t = new Thread(this::run, "timer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    Timeout schedule(long delayMs, Runnable task) {
+        Timeout t = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs), false);
+        added.add(t);
+        return t;
+    }
+
+    /** Una scadenza riarmabile, ferma finche' non si chiama arm(). */
+    Timeout timeout(Runnable task) {
+        return new Timeout(task, 0, true);
+    }
+
+    /** Scadenze nella ruota; solo indicativo, letto senza sincronizzazione. */
+    int size() { return size; }
+
+    private void run() {
+        while (true) {
+            long next = start + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+            // Se il thread e' rimasto indietro i tick mancanti si recuperano uno dopo l'altro
+            Timeout t;
+            while ((t = cancelled.poll()) != null) unlink(t);
+            while ((t = added.poll()) != null) insert(t);
+            expire(heads[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void insert(Timeout t) {
+        if (!t.reusable) {
+            if (t.state == 0) link(t);
+            return;
+        }
+        synchronized (t) {
+            // Entra anche se cancellata nel frattempo: il prossimo arm() la trova nella ruota senza ripassare dalla coda
+            if (t.state == 0 || t.slot < 0) link(t);
+        }
+    }
+
+    private void link(Timeout t) {
+        // Riarmata prima della scadenza con cui era nella ruota: si sposta
+        unlink(t);
+        long deadline = t.deadline;
+        t.linkedDeadline = deadline;
+        // Una scadenza gia' passata va nello slot corrente, che si processa subito dopo
+        long due = Math.max(tick, due(deadline));
+        t.rounds = (due - tick) / heads.length;
+        t.slot = (int) (due & mask);
+        t.next = heads[t.slot];
+        if (t.next != null) t.next.prev = t;
+        heads[t.slot] = t;
+        size++;
+    }
+
+    /** Il tick in cui scade deadline. */
+    private long due(long deadline) {
+        return (deadline - start + tickNanos - 1) / tickNanos;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.slot < 0) return;
+        if (t.prev != null) t.prev.next = t.next;
+        else heads[t.slot] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.slot = -1;
+        size--;
+    }
+
+    private void expire(Timeout t) {
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.rounds > 0) {
+                t.rounds--;
+            } else {
+                unlink(t);
+                boolean fire;
+                if (t.reusable) {
+                    synchronized (t) {
+                        // Riarmata piu' in la' mentre era nella ruota: si rimette al suo posto
+                        if (t.state == 0 && due(t.deadline) > tick) {
+                            link(t);
+                            t = next;
+                            continue;
+                        }
+                        t.pending = false;
+                        fire = t.state == 0;
+                        if (fire) t.state = 2;
+                    }
+                } else {
+                    fire = t.state == 0;
+                    if (fire) t.state = 2;
+                }
+                if (fire) {
+                    try {
+                        runner.execute(t.task);
+                    } catch (RuntimeException e) {
+                        // una scadenza che fallisce (o un runner che la rifiuta) non deve fermare il timer
+                    }
+                }
+            }
+            t = next;
+        }
+    }
+
+}